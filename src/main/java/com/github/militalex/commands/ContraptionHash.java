@@ -0,0 +1,79 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.util.world.BlockPos;
+import com.github.militalex.util.world.BlockPosMap;
+import com.github.militalex.util.world.BlockSource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * This class hashes the region of a contraption, so that an unchanged contraption can be detected without scanning it again.
+ * The region consists of all nodes of its {@link RedstoneGraph} and their surrounding blocks, because {@link RedstoneRules}
+ * never look further than one block from a reached block. Any change which could change the graph changes the hash.
+ * <br>
+ * Every block is hashed by its position, block data and command independently and the hashes are summed up. Summing is
+ * independent of order, so blocks are hashed in parallel. The source has to be thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class ContraptionHash {
+
+	private ContraptionHash(){}
+
+	/**
+	 * @return Returns hash of region of given graph read from given source.
+	 */
+	static long compute(@NotNull RedstoneGraph graph, @NotNull BlockSource source){
+		final BlockPosMap region = region(graph);
+		final long[] positions = new long[region.size()];
+		final int[] size = {0};
+		region.forEachPos(pos -> positions[size[0]++] = pos);
+
+		return Arrays.stream(positions).parallel().map(pos -> {
+			final int x = BlockPos.getX(pos), y = BlockPos.getY(pos), z = BlockPos.getZ(pos);
+			return mix(pos * 0x9E3779B97F4A7C15L ^ hash(source.getBlockData(x, y, z).getAsString()) ^ hash(source.getCommand(x, y, z)) * 31);
+		}).sum();
+	}
+
+	/**
+	 * @return Returns all nodes of given graph and their surrounding blocks. A change outside of it cannot change the graph.
+	 */
+	static @NotNull BlockPosMap region(@NotNull RedstoneGraph graph){
+		final BlockPosMap region = new BlockPosMap(graph.getNodeCount() * 8);
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			final long pos = graph.getPosition(node);
+			final int x = BlockPos.getX(pos), y = BlockPos.getY(pos), z = BlockPos.getZ(pos);
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dz = -1; dz <= 1; dz++) region.put(BlockPos.pack(x + dx, y + dy, z + dz), 0, 0, 0);
+				}
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * @return Returns 64 bit FNV-1a hash of given string or 0 if it is null.
+	 */
+	private static long hash(@Nullable String s){
+		if (s == null) return 0;
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Finalizer of SplitMix64, so that summed up hashes of similar blocks do not cancel out.
+	 */
+	private static long mix(long h){
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+}
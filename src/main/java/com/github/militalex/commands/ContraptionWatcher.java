@@ -0,0 +1,391 @@
+package com.github.militalex.commands;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.wrappers.BlockPosition;
+import com.github.militalex.main.CommandBlockHelper;
+import com.github.militalex.util.datapack.Datapack;
+import com.github.militalex.util.datapack.DatapackManager;
+import com.github.militalex.util.world.BlockPos;
+import com.github.militalex.util.world.BlockPosMap;
+import com.github.militalex.util.world.SnapshotBlockSource;
+import net.md_5.bungee.api.ChatColor;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * This class keeps the datapack of a contraption up to date while the contraption is edited. It listens for placed and
+ * broken blocks, clicked blocks (e.g. changed repeater delays) and changed commands of command blocks inside the region of the
+ * contraption. Changes are collected for {@link ContraptionWatcher#DEBOUNCE_TICKS} and then the contraption is compiled again
+ * asynchronously. Only chunks containing changes are captured again, all other chunks are read from the snapshots of the
+ * previous compile, so the server thread only captures what was edited.
+ * <br>
+ * Leaf functions of a watched datapack cover fixed windows of scores, see {@link MusicFunctionWriter#renderWindows}. After
+ * compiling, only leaf functions whose content changed are written. The function tree is only created again if windows
+ * were added or removed. Changed functions are written into a patch of the datapack, whose files are moved into the datapack
+ * on server thread, so that a reload never sees a half updated datapack. Blocks are never removed while watching.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class ContraptionWatcher implements Listener {
+
+	/**
+	 * Defines how many ticks changes are collected before the contraption is compiled again.
+	 */
+	public static final int DEBOUNCE_TICKS = 10;
+
+	/**
+	 * All running watchers by name of their datapack. Only used on server thread.
+	 */
+	private static final Map<String, ContraptionWatcher> WATCHERS = new HashMap<>();
+
+	/**
+	 * @return Returns true if datapack with given name is watched.
+	 */
+	static boolean isWatching(@NotNull String name){
+		return WATCHERS.containsKey(name);
+	}
+
+	/**
+	 * Starts watching given contraption and writes its datapack completely once.
+	 * @param player Player who is informed about updates.
+	 * @param name Name of datapack.
+	 * @param start Location signal starts at.
+	 * @param propagation Defines in which order reached nodes are processed when graph is evaluated.
+	 * @param parallelism Amount of threads compiling the contraption.
+	 */
+	static void watch(@NotNull Player player, @NotNull String name, @NotNull Location start,
+					  @NotNull RedstoneGraph.Propagation propagation, int parallelism){
+		if (WATCHERS.containsKey(name)) throw new IllegalStateException("Datapack " + name + " is already watched.");
+
+		final ContraptionWatcher watcher = new ContraptionWatcher(player, name, start, propagation, parallelism);
+		WATCHERS.put(name, watcher);
+		Bukkit.getPluginManager().registerEvents(watcher, CommandBlockHelper.PLUGIN);
+		ProtocolLibrary.getProtocolManager().addPacketListener(watcher.commandListener);
+		watcher.update();
+	}
+
+	/**
+	 * Stops watching datapack with given name.
+	 * @return Returns true if datapack was watched.
+	 */
+	static boolean unwatch(@NotNull String name){
+		final ContraptionWatcher watcher = WATCHERS.remove(name);
+		if (watcher == null) return false;
+
+		watcher.stopped = true;
+		HandlerList.unregisterAll(watcher);
+		ProtocolLibrary.getProtocolManager().removePacketListener(watcher.commandListener);
+		watcher.source.close();
+		return true;
+	}
+
+	/**
+	 * Stops all watchers, e.g. when plugin is disabled.
+	 */
+	static void unwatchAll(){
+		for (String name : new ArrayList<>(WATCHERS.keySet())) unwatch(name);
+	}
+
+	/**
+	 * Player who is informed about updates.
+	 */
+	private final Player player;
+
+	/**
+	 * Name of watched datapack.
+	 */
+	private final String name;
+
+	/**
+	 * Location signal starts at.
+	 */
+	private final Location start;
+	private final World world;
+
+	/**
+	 * Defines in which order reached nodes are processed when graph is evaluated.
+	 */
+	private final RedstoneGraph.Propagation propagation;
+
+	/**
+	 * Amount of threads compiling the contraption.
+	 */
+	private final int parallelism;
+
+	/**
+	 * Source keeping snapshots of unchanged chunks between compiles.
+	 */
+	private final SnapshotBlockSource source;
+
+	/**
+	 * Receives changed commands of command blocks, which do not fire a Bukkit event.
+	 */
+	private final PacketAdapter commandListener;
+
+	/**
+	 * Nodes of the last compiled graph and their surrounding blocks. Changes outside of it are ignored.
+	 * Null until first compile is finished.
+	 */
+	private BlockPosMap region;
+
+	/**
+	 * Bounding box of {@link ContraptionWatcher#region} to ignore most changes without a lookup.
+	 */
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/**
+	 * Content of leaf functions written by last update by function name.
+	 */
+	private Map<String, String> functions = Map.of();
+
+	/**
+	 * Chunk keys of chunks containing changes since last compile.
+	 */
+	private final Set<Long> dirtyChunks = new HashSet<>();
+
+	/**
+	 * Positions of blocks changed before the first compile is finished, which are checked against region afterwards.
+	 */
+	private final Set<Long> earlyChanges = new HashSet<>();
+
+	/**
+	 * Defines if an update is scheduled, if compiling is running and if watcher is stopped.
+	 */
+	private boolean scheduled, compiling, stopped;
+
+	private ContraptionWatcher(@NotNull Player player, @NotNull String name, @NotNull Location start,
+							   @NotNull RedstoneGraph.Propagation propagation, int parallelism) {
+		this.player = player;
+		this.name = name;
+		this.start = start;
+		this.world = start.getWorld();
+		this.propagation = propagation;
+		this.parallelism = parallelism;
+		this.source = new SnapshotBlockSource(CommandBlockHelper.PLUGIN, world);
+		this.commandListener = new PacketAdapter(CommandBlockHelper.PLUGIN, PacketType.Play.Client.SET_COMMAND_BLOCK) {
+			@Override
+			public void onPacketReceiving(PacketEvent event) {
+				// Packets are received on netty threads
+				final BlockPosition pos = event.getPacket().getBlockPositionModifier().read(0);
+				final World packetWorld = event.getPlayer().getWorld();
+				Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+					if (packetWorld.equals(world)) changed(pos.getX(), pos.getY(), pos.getZ());
+				});
+			}
+		};
+	}
+
+	// Listeners
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlace(BlockPlaceEvent event){
+		changed(event.getBlockPlaced());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBreak(BlockBreakEvent event){
+		changed(event.getBlock());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onInteract(PlayerInteractEvent event){
+		// Every click of every player arrives here, so everything outside of region is dropped first
+		if (event.getAction() != Action.RIGHT_CLICK_BLOCK || stopped) return;
+		final Block block = event.getClickedBlock();
+		if (block != null) changed(block);
+	}
+
+	private void changed(@NotNull Block block){
+		if (block.getWorld().equals(world)) changed(block.getX(), block.getY(), block.getZ());
+	}
+
+	/**
+	 * Marks chunk of given block as changed if block is inside region of contraption and schedules an update.
+	 */
+	private void changed(int x, int y, int z){
+		if (stopped) return;
+
+		// Region is unknown while first compile is running
+		if (region == null) {
+			earlyChanges.add(BlockPos.pack(x, y, z));
+			return;
+		}
+		if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ || !region.contains(BlockPos.pack(x, y, z))) return;
+
+		dirtyChunks.add(BlockPos.chunkKey(x >> 4, z >> 4));
+		if (!scheduled) {
+			scheduled = true;
+			Bukkit.getScheduler().runTaskLater(CommandBlockHelper.PLUGIN, this::update, DEBOUNCE_TICKS);
+		}
+	}
+
+	// Updating
+
+	/**
+	 * Compiles contraption again asynchronously and writes changed leaf functions. Has to be called on server thread.
+	 */
+	private void update(){
+		scheduled = false;
+		if (stopped) return;
+
+		// Changes while compiling are handled afterwards
+		if (compiling) return;
+		compiling = true;
+
+		// No other thread reads source now
+		for (long key : dirtyChunks) source.invalidate(BlockPos.getChunkX(key), BlockPos.getChunkZ(key));
+		dirtyChunks.clear();
+
+		final Map<String, String> previous = functions;
+		Bukkit.getScheduler().runTaskAsynchronously(CommandBlockHelper.PLUGIN, () -> {
+			final RedstoneGraph graph;
+			final Map<String, String> current;
+			final boolean rebuild;
+			final int written;
+			try {
+				graph = new ParallelGraphCompiler(source, parallelism, 0).compile(start);
+				current = MusicFunctionWriter.renderWindows(name, graph, propagation);
+
+				// A single leaf function is renamed to root of tree, so it cannot be updated on its own
+				rebuild = !previous.keySet().equals(current.keySet()) || current.size() <= 1;
+				written = stageFunctions(previous, current, rebuild);
+				graph.save(MusicScanTickable.getWatchedGraphFile(name));
+			} catch (RuntimeException | IOException e) {
+				Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> failed(e));
+				return;
+			}
+
+			final BlockPosMap compiledRegion = ContraptionHash.region(graph);
+			Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+				if (stopped) {
+					compiling = false;
+					if (written > 0) discardPatch();
+					return;
+				}
+
+				// Changed functions become visible at once
+				if (written > 0) {
+					try {
+						DatapackManager.getInstance().applyPatch(name, rebuild);
+					} catch (IOException | RuntimeException e) {
+						failed(e);
+						return;
+					}
+				}
+				compiling = false;
+
+				functions = current;
+				setRegion(compiledRegion);
+				for (long pos : earlyChanges) changed(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+				earlyChanges.clear();
+				if (written > 0) {
+					DatapackManager.getInstance().reload();
+					message(ChatColor.GOLD + "Updated " + written + " of " + current.size() + " functions of " + ChatColor.YELLOW + name + ChatColor.GOLD + ".");
+				}
+
+				// Changes which arrived while compiling
+				if (!dirtyChunks.isEmpty() && !scheduled) update();
+			});
+		});
+	}
+
+	/**
+	 * Handles a failed update by discarding its patch. If the datapack does not exist anymore, watching is stopped,
+	 * otherwise changes which arrived meanwhile are handled. Has to be called on server thread.
+	 */
+	private void failed(@NotNull Exception e){
+		compiling = false;
+		discardPatch();
+		if (stopped) return;
+
+		// Without region of a first compile every early change is compiled again
+		if (region == null) {
+			for (long pos : earlyChanges) dirtyChunks.add(BlockPos.chunkKey(BlockPos.getX(pos) >> 4, BlockPos.getZ(pos) >> 4));
+			earlyChanges.clear();
+		}
+
+		// Datapack is not created again, because it was deleted on purpose
+		if (!DatapackManager.getInstance().exists(name)) {
+			message(ChatColor.RED + "Datapack " + name + " does not exist anymore, stopped watching.");
+			unwatch(name);
+			return;
+		}
+
+		CommandBlockHelper.LOGGER.log(Level.WARNING, "Updating watched contraption " + name + " failed.", e);
+		message(ChatColor.RED + "Updating " + name + " failed: " + e.getMessage());
+		if (!dirtyChunks.isEmpty() && !scheduled) update();
+	}
+
+	/**
+	 * Writes leaf functions which differ from previous ones into a patch of the datapack. If the function tree is built again,
+	 * all leaf functions and the function tree are written, so that the patch replaces all functions. Nothing is staged
+	 * if no function changed.
+	 * @param rebuild Defines if the function tree is built again, e.g. because windows were added or removed.
+	 * @return Returns amount of written leaf functions.
+	 * @throws IllegalArgumentException if datapack does not exist.
+	 */
+	private int stageFunctions(@NotNull Map<String, String> previous, @NotNull Map<String, String> current, boolean rebuild) throws IOException {
+		final Map<String, String> changed = new HashMap<>();
+		for (Map.Entry<String, String> function : current.entrySet()) {
+			if (rebuild || !function.getValue().equals(previous.get(function.getKey()))) changed.put(function.getKey(), function.getValue());
+		}
+		if (changed.isEmpty()) return 0;
+
+		final Datapack patch = DatapackManager.getInstance().stagePatch(name);
+		patch.putFunctions(name, changed);
+		if (rebuild) MusicScanCommand.calcTreeFunctions(patch, name);
+		return changed.size();
+	}
+
+	/**
+	 * Deletes patch of datapack if there is one.
+	 */
+	private void discardPatch(){
+		try {
+			DatapackManager.getInstance().discardPatch(name);
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot delete patch of datapack " + name + ".", e);
+		}
+	}
+
+	/**
+	 * Sets region changes are listened in.
+	 */
+	private void setRegion(@NotNull BlockPosMap region){
+		minX = minY = minZ = Integer.MAX_VALUE;
+		maxX = maxY = maxZ = Integer.MIN_VALUE;
+		region.forEachPos(pos -> {
+			minX = Math.min(minX, BlockPos.getX(pos));
+			minY = Math.min(minY, BlockPos.getY(pos));
+			minZ = Math.min(minZ, BlockPos.getZ(pos));
+			maxX = Math.max(maxX, BlockPos.getX(pos));
+			maxY = Math.max(maxY, BlockPos.getY(pos));
+			maxZ = Math.max(maxZ, BlockPos.getZ(pos));
+		});
+		this.region = region;
+	}
+
+	private void message(String message){
+		if (player.isOnline()) player.sendMessage(ChatColor.AQUA + "[/savemusic] " + message);
+	}
+}
@@ -0,0 +1,263 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.util.Tuple;
+import com.github.militalex.util.datapack.Datapack;
+import com.github.militalex.util.datapack.DatapackManager;
+import com.github.militalex.util.datapack.DatapackWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class writes the timeline of a {@link RedstoneGraph} into the leaf functions of a new staged datapack. Commands are buffered,
+ * sorted by score and flushed function by function, each function covering {@link MusicFunctionWriter#MAX_SCORE_PER_FUNCTION} scores.
+ * Flushed functions are written by a {@link DatapackWriter} on its own thread, so evaluation only waits when the disk falls behind.
+ * This class is not thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class MusicFunctionWriter {
+
+	/**
+	 * Defines how many score/delays should be contained in a function.
+	 */
+	public static final int MAX_SCORE_PER_FUNCTION = 20;
+
+	/**
+	 * Name of datapack which will be created.
+	 */
+	private final String name;
+
+	/**
+	 * Reference to datapack corresponding.
+	 */
+	private Datapack datapack;
+
+	/**
+	 * Writes flushed functions into datapack or null if no datapack was created yet.
+	 */
+	private DatapackWriter writer;
+
+	MusicFunctionWriter(@NotNull String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Evaluates given graph and writes every played sound into the datapack.
+	 * @param graph Graph which is evaluated.
+	 * @param propagation Defines in which order reached nodes are processed.
+	 * @param visitor Receives every processed node additionally or null.
+	 * @return Returns statistics of evaluation.
+	 */
+	RedstoneGraph.Stats write(@NotNull RedstoneGraph graph, @NotNull RedstoneGraph.Propagation propagation, @Nullable RedstoneGraph.Visitor visitor){
+		final RedstoneGraph.Evaluation evaluation = startWriting(graph, propagation, visitor);
+		while (!evaluation.isDone()) evaluation.step();
+		finishWriting();
+		return evaluation.getStats();
+	}
+
+	/**
+	 * Starts evaluating given graph step by step. Every step writes the sound of the processed node into the datapack.
+	 * {@link MusicFunctionWriter#finishWriting()} has to be called when evaluation is done.
+	 * @param graph Graph which is evaluated.
+	 * @param propagation Defines in which order reached nodes are processed.
+	 * @param visitor Receives every processed node additionally or null.
+	 * @return Returns evaluation with the signal at root.
+	 */
+	RedstoneGraph.Evaluation startWriting(@NotNull RedstoneGraph graph, @NotNull RedstoneGraph.Propagation propagation,
+										  @Nullable RedstoneGraph.Visitor visitor){
+		return graph.startEvaluation(propagation, (node, score, length) -> {
+			final String command = graph.getCommand(node);
+			if (command != null) {
+				// Add Command to corresponding datapack function
+				if (!graph.isRepeating(node)) addToDatapack(score, command);
+				else {
+					for (int i = 0; i < length; i++){
+						addToDatapack(score + i, command);
+					}
+				}
+			}
+			if (visitor != null) visitor.visit(node, score, length);
+		});
+	}
+
+	/**
+	 * Saves buffered commands into datapack functions and stops accepting commands.
+	 */
+	void finishWriting(){
+		// Nothing was written if no sound was played
+		if (writer == null) return;
+		flushAll();
+		writer.close();
+	}
+
+	/**
+	 * @return Returns true if the writer thread fell behind, so that evaluation on server thread should pause.
+	 */
+	boolean isBackedUp(){
+		return writer != null && writer.isBackedUp();
+	}
+
+	/**
+	 * @return Returns future completing when every function written by {@link MusicFunctionWriter#write} is durably stored
+	 * or failing if writing failed. Has to be called after writing.
+	 */
+	@NotNull CompletableFuture<Void> written(){
+		return writer != null ? writer.close() : CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Evaluates given graph into leaf functions covering fixed windows of {@link MusicFunctionWriter#MAX_SCORE_PER_FUNCTION}
+	 * scores, so that a function keeps its name as long as its window contains commands. Nothing is written.
+	 * @param name Name of datapack.
+	 * @param graph Graph which is evaluated.
+	 * @param propagation Defines in which order reached nodes are processed.
+	 * @return Returns content of every leaf function by its name, ordered by score.
+	 */
+	static @NotNull Map<String, String> renderWindows(@NotNull String name, @NotNull RedstoneGraph graph,
+													  @NotNull RedstoneGraph.Propagation propagation){
+		final List<Tuple<Integer, String>> timeline = new ArrayList<>();
+		graph.evaluate(propagation, (node, score, length) -> {
+			final String command = graph.getCommand(node);
+			if (command == null) return;
+			if (!graph.isRepeating(node)) timeline.add(new Tuple<>(score, command));
+			else {
+				for (int i = 0; i < length; i++){
+					timeline.add(new Tuple<>(score + i, command));
+				}
+			}
+		});
+		// Stable, so commands with equal scores keep order of evaluation
+		timeline.sort(Comparator.comparingInt(Tuple::getKey));
+
+		final Map<String, String> functions = new LinkedHashMap<>();
+		final StringBuilder fBuilder = new StringBuilder();
+		int window = -1;
+		for (Tuple<Integer, String> tuple : timeline) {
+			final int score = tuple.getKey();
+			final int scoreWindow = score / MAX_SCORE_PER_FUNCTION;
+			if (scoreWindow != window && !fBuilder.isEmpty()) {
+				functions.put(getWindowFunction(window), fBuilder.toString());
+				fBuilder.setLength(0);
+			}
+			window = scoreWindow;
+			fBuilder.append("execute if score ").append(name).append(" musik matches ").append(score).append(" ").append(tuple.getValue()).append("\n");
+		}
+		if (!fBuilder.isEmpty()) functions.put(getWindowFunction(window), fBuilder.toString());
+		return functions;
+	}
+
+	/**
+	 * @return Returns name of leaf function covering given window of scores.
+	 */
+	private static String getWindowFunction(int window){
+		final int fScore = window * MAX_SCORE_PER_FUNCTION;
+		return "musik_" + fScore + "_" + (fScore + MAX_SCORE_PER_FUNCTION - 1);
+	}
+
+	/**
+	 * Add given command to datapack, by buffering it and flushing it later when at least a function can be flushed.
+	 */
+	private void addToDatapack(int score, String command){
+		// Error when no datapack was created and it already exists
+		if (datapack == null && DatapackManager.getInstance().exists(name)) {
+			throw new IllegalArgumentException("Datapack " + name + " already exists. It is not possible to modify existent Datapack.");
+		}
+		// Creating new datapack in staging folder, it is committed when complete
+		if (datapack == null) {
+			datapack = DatapackManager.getInstance().createStaged(name);
+			writer = new DatapackWriter(datapack, name);
+		}
+
+		// Buffers command, method below flush's if needed.
+		addToBuffer(command, score);
+	}
+
+	// Buffer functions
+
+	/**
+	 * Buffers a certain number of commands, sorts them by scores and enables function-wise flushing.
+	 */
+	private final PriorityQueue<Tuple<Integer,String>> BUFFER_LIST = new PriorityQueue<>(Comparator.comparingInt(Tuple::getKey));
+
+	/**
+	 * Counts amount of times buffer has flushed to determine point in time buffer should be flushed.
+	 */
+	private int fFlushPtr = 0;
+
+	/**
+	 * Add given command to buffer and flushes it automatically if enough commands are stored in buffer.
+	 */
+	private void addToBuffer(String command, int score){
+		// Sets flush pointer to first if buffer was empty
+		if (BUFFER_LIST.isEmpty()) fFlushPtr = score;
+
+		// Add command to buffer
+		BUFFER_LIST.add(new Tuple<>(score, command));
+
+		// flushes three functions if commands of six functions are buffered
+		if (BUFFER_LIST.element().getKey() > fFlushPtr + MAX_SCORE_PER_FUNCTION * 6) {
+			flush(3);
+
+			// Sets flush pointer to first if not empty
+			if (!BUFFER_LIST.isEmpty()){
+				fFlushPtr = BUFFER_LIST.element().getKey();
+			}
+		}
+	}
+
+	/**
+	 * flushes complete buffer
+	 */
+	public void flushAll(){
+		flush(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Flushes only commands corresponding to a function from buffer.
+	 */
+	public void flushFunction(){
+		flush(1);
+	}
+
+	/**
+	 * Flushes commands of given amount of functions from buffer. All functions are written in one batch.
+	 */
+	private void flush(int functionCount){
+		final Map<String, StringBuilder> functions = new LinkedHashMap<>();
+		for (int i = 0; i < functionCount && !BUFFER_LIST.isEmpty(); i++) {
+			takeFunction(functions);
+		}
+
+		// Hand functions over to writer thread
+		assert writer != null;
+		writer.submit(functions);
+	}
+
+	/**
+	 * Removes commands corresponding to a function from buffer and puts the function into given map.
+	 */
+	private void takeFunction(Map<String, StringBuilder> functions){
+		final StringBuilder fBuilder = new StringBuilder();
+
+		// Determines intervall of scores function covers
+		final int fScore = BUFFER_LIST.element().getKey();	// first added score -> does not change anymore
+		int lScore = BUFFER_LIST.element().getKey();		// last added score  -> will be calculated below
+		int localMax = fScore + MAX_SCORE_PER_FUNCTION;		// relative maximum score
+
+		// Adds commands to the builder until the function has added all commands with interval [fscore,localMax] to the function.
+		while (!BUFFER_LIST.isEmpty() && BUFFER_LIST.element().getKey() < localMax) {
+			final var tuple = BUFFER_LIST.remove();
+			lScore = tuple.getKey();
+			final String cmd = tuple.getValue();
+
+			// modify command and make it an execute if score command with scores stored in tuples
+			fBuilder.append("execute if score ").append(name).append(" musik matches ").append(lScore).append(" ").append(cmd).append("\n");
+		}
+
+		if (!fBuilder.isEmpty()) functions.put("musik_" + fScore + "_" + lScore, fBuilder);
+	}
+}
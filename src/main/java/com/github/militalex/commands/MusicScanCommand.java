@@ -4,14 +4,24 @@ import com.github.militalex.main.CommandBlockHelper;
 import com.github.militalex.util.HomogenTuple;
 import com.github.militalex.util.datapack.Datapack;
 import com.github.militalex.util.datapack.DatapackManager;
+import com.github.militalex.util.world.BlockPos;
+import com.github.militalex.util.world.BlockSource;
+import com.github.militalex.util.world.SnapshotBlockSource;
+import com.github.militalex.util.world.UndoJournal;
+import com.github.militalex.util.world.UndoTickable;
+import com.github.militalex.util.world.WorldBlockSource;
 import dev.jorel.commandapi.CommandAPICommand;
 import dev.jorel.commandapi.CommandPermission;
+import dev.jorel.commandapi.arguments.LiteralArgument;
 import dev.jorel.commandapi.arguments.LocationArgument;
 import dev.jorel.commandapi.arguments.LocationType;
 import dev.jorel.commandapi.arguments.StringArgument;
 import net.md_5.bungee.api.ChatColor;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,8 +29,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -32,13 +45,31 @@ import java.util.stream.Stream;
  */
 public class MusicScanCommand {
 
+	/**
+	 * Names of scans whose removed blocks are currently restored.
+	 */
+	private static final Set<String> UNDOING = new HashSet<>();
+
+	/**
+	 * Names of datapacks which are currently exported.
+	 */
+	private static final Set<String> EXPORTING = new HashSet<>();
+
+	/**
+	 * Stops everything working in background, e.g. watched contraptions. Has to be called when plugin is disabled.
+	 */
+	public static void unregister(){
+		ContraptionWatcher.unwatchAll();
+	}
+
 	public static void register(){
 		new CommandAPICommand("savemusic")
 				.withShortDescription("Saves given music contraption as a datapack.")
 				.withFullDescription("This command can generate asynchronously a datapack from your music. " +
 						"Note that your music contraption will be deleted when doing so. " +
 						"Therefore it is highly recommended to make a backup of your world firstly" +
-						" and executes the command only on a copy of your music to prevent irreversible damage." + ChatColor.RED +
+						" and executes the command only on a copy of your music to prevent irreversible damage." +
+						" (You can keep the contraption by setting savemusic.removal to keep in config.yml.)" + ChatColor.RED +
 						" This command can only executed by players!")
 				.withPermission(CommandPermission.OP)
 				// Arguments
@@ -56,37 +87,432 @@ public class MusicScanCommand {
 						return;
 					}
 
-					// Scan start message
-					player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Starting to scan ...");
+					// Scanning asynchronous on chunk snapshots or sliced on server thread
+					final boolean async = CommandBlockHelper.PLUGIN.getConfig().getBoolean("savemusic.async", true);
+
+					// Scans of same contraption are collapsed by coordinator
+					final String key = startLoc.getWorld().getName() + ":"
+							+ BlockPos.pack(startLoc.getBlockX(), startLoc.getBlockY(), startLoc.getBlockZ());
+
+					if (EXPORTING.contains(name)){
+						player.sendMessage(ChatColor.RED + "Datapack " + name + " is already being exported!");
+						return;
+					}
+
+					// Contraption scanned from here before needs about as much memory again
+					final ScanCache cache = ScanCache.load(key);
+					final long estimate = cache != null ? cache.estimateMemory() : 0;
+					ScanCoordinator.getInstance().submit(player, key, name, estimate, async, (budget, endConsumer) -> {
+						final MusicScanTickable tickable = new MusicScanTickable(name, createSource(startLoc.getWorld(), async), budget,
+								getRemoval(), getPropagation(), async ? getParallelism() : 1, getCheckpointInterval(), endConsumer);
+						tickable.setStart(startLoc);
+						if (async && CommandBlockHelper.PLUGIN.getConfig().getBoolean("savemusic.cache", true)) tickable.useCache(key);
+						return tickable;
+					}, players -> finishDatapack(players, name, "Scan finished!"));
+				})
+				.register();
+
+		// Resumes a scan which was interrupted, e.g. by a server restart
+		new CommandAPICommand("savemusic")
+				.withShortDescription("Resumes an interrupted scan of music.")
+				.withFullDescription("This command continues a scan from its last checkpoint instead of scanning from scratch. " +
+						"Checkpoints are written regularly while scanning as configured in config.yml." + ChatColor.RED +
+						" This command can only executed by players!")
+				.withPermission(CommandPermission.OP)
+				// Arguments
+				.withArguments(new LiteralArgument("resume"))
+				.withArguments(new StringArgument("Datapack Name"))
+				// can only be executed by players
+				.executesPlayer((player, args) -> {
+					final String name = ((String) args[0]).toLowerCase();
+
+					// Checkpoint has to be saved before
+					if (!Files.exists(ScanCheckpoint.getFile(name))){
+						player.sendMessage(ChatColor.RED + "There is no interrupted scan called " + name + "!");
+						return;
+					}
+
+					// Resume message
+					player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Resuming scan ...");
 
-					// Start async scanning
-					final MusicScanTickable tickable = new MusicScanTickable(name, unused -> {
-						// Check if functions are created. If not -> message
-						if (!DatapackManager.DATAPACK_FOLDER.resolve(name).resolve("data").resolve(name).resolve("functions").toFile().exists()){
-							player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " No music blocks are found. Cannot create Datapack");
+					Bukkit.getScheduler().runTaskAsynchronously(CommandBlockHelper.PLUGIN, () -> {
+						final ScanCheckpoint checkpoint;
+						try {
+							checkpoint = ScanCheckpoint.load(name);
+						} catch (IOException e) {
+							CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot load scan checkpoint " + name + ".", e);
+							Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () ->
+									player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot load checkpoint of " + name + "."));
 							return;
 						}
 
-						// Create function tree
+						Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+							final World world = Bukkit.getWorld(checkpoint.world());
+							if (world == null){
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " World " + checkpoint.world() + " is not loaded.");
+								return;
+							}
+							if (EXPORTING.contains(name)){
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Datapack " + name + " is already being exported.");
+								return;
+							}
+
+							// Coordinator rejects resuming if the scan exceeds heap quota already
+							final long estimate = MusicScanTickable.estimateMemory(checkpoint.graph().getNodeCount(),
+									checkpoint.graph().getEdgeCount(), checkpoint.queue().size());
+							final boolean async = CommandBlockHelper.PLUGIN.getConfig().getBoolean("savemusic.async", true);
+							ScanCoordinator.getInstance().submit(player, "resume:" + name, name, estimate, async, (budget, endConsumer) ->
+									new MusicScanTickable(checkpoint, createSource(world, async), budget, getCheckpointInterval(), endConsumer),
+									players -> finishDatapack(players, name, "Scan finished!"));
+						});
+					});
+				})
+				.register();
+
+		// Restores blocks which were removed by a scan
+		new CommandAPICommand("savemusic")
+				.withShortDescription("Restores music contraption removed by a scan.")
+				.withFullDescription("This command places all blocks back which were removed when scanning music into given datapack. " +
+						"Blocks are restored chunk by chunk, so that the server does not lag. The datapack is not deleted." + ChatColor.RED +
+						" This command can only executed by players!")
+				.withPermission(CommandPermission.OP)
+				// Arguments
+				.withArguments(new LiteralArgument("undo"))
+				.withArguments(new StringArgument("Datapack Name"))
+				// can only be executed by players
+				.executesPlayer((player, args) -> {
+					final String name = ((String) args[0]).toLowerCase();
+
+					// Journal has to be written before
+					final Path journalFile = MusicScanTickable.getJournalFile(name);
+					if (!Files.exists(journalFile)){
+						player.sendMessage(ChatColor.RED + "There are no removed blocks of " + name + "!");
+						return;
+					}
+					if (ScanCoordinator.getInstance().isScanning(name) || !UNDOING.add(name)){
+						player.sendMessage(ChatColor.RED + "Blocks of " + name + " cannot be restored right now!");
+						return;
+					}
+
+					// Undo message
+					player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Restoring removed blocks ...");
+
+					Bukkit.getScheduler().runTaskAsynchronously(CommandBlockHelper.PLUGIN, () -> {
+						final UndoJournal.Contents contents;
 						try {
-							calcTreeFunctions(name);
+							contents = UndoJournal.read(journalFile);
 						} catch (IOException e) {
-							throw new RuntimeException(e);
+							CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot load undo journal " + name + ".", e);
+							Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+								UNDOING.remove(name);
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot load removed blocks of " + name + ".");
+							});
+							return;
 						}
 
-						// Scan finished msg
-						player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Scan finished!");
+						Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+							final World world = Bukkit.getWorld(contents.world());
+							if (world == null){
+								UNDOING.remove(name);
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " World " + contents.world() + " is not loaded.");
+								return;
+							}
+
+							new UndoTickable(CommandBlockHelper.PLUGIN, world, ScanCoordinator.createTickBudget(), contents, undo -> {
+								// Blocks can only be restored once
+								try {
+									Files.deleteIfExists(journalFile);
+								} catch (IOException e) {
+									CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot delete undo journal of " + name + ".", e);
+								}
+								UNDOING.remove(name);
+
+								if (!player.isOnline()) return;
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Restored " + undo.getRestored() + " blocks.");
+								if (undo.getSkipped() > 0) player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + undo.getSkipped()
+										+ " blocks are unknown to this server and were skipped.");
+							}).start(0, 0, true);
+						});
+					});
+				})
+				.register();
 
-						// Reloading datapacks with fancy messages
-						player.sendMessage(ChatColor.DARK_AQUA + "[/reload] " + ChatColor.GOLD + "Now reloading Datapacks ...");
-						DatapackManager.getInstance().reload();
-						player.sendMessage(ChatColor.DARK_AQUA + "[/reload] " + ChatColor.GOLD + "Reloading of Datapacks finished. " +
-								"Your Datapack is " + ChatColor.YELLOW + name + ChatColor.GOLD + " is now available.");
+		// Keeps datapack of a contraption up to date while it is edited
+		new CommandAPICommand("savemusic")
+				.withShortDescription("Updates datapack of scanned music while it is edited.")
+				.withFullDescription("This command watches the contraption which was scanned into given datapack. Whenever blocks " +
+						"of it are placed, broken or commands are changed, only the changed functions of the datapack are written again. " +
+						"The contraption is not removed while watching. Use /savemusic unwatch to stop." + ChatColor.RED +
+						" This command can only executed by players!")
+				.withPermission(CommandPermission.OP)
+				// Arguments
+				.withArguments(new LiteralArgument("watch"))
+				.withArguments(new StringArgument("Datapack Name"))
+				// can only be executed by players
+				.executesPlayer((player, args) -> {
+					final String name = ((String) args[0]).toLowerCase();
+
+					// Graph has to be saved before to know where the contraption starts
+					final Path graphFile = MusicScanTickable.getGraphFile(name);
+					if (!Files.exists(graphFile)){
+						player.sendMessage(ChatColor.RED + "There is no scanned music called " + name + "!");
+						return;
+					}
+					if (!DatapackManager.getInstance().exists(name)){
+						player.sendMessage(ChatColor.RED + "Datapack " + name + " does not exist! Export it with /savemusic export first.");
+						return;
+					}
+					if (DatapackManager.getInstance().isZipped(name)){
+						player.sendMessage(ChatColor.RED + "Datapack " + name + " is zipped and cannot be updated while editing!");
+						return;
+					}
+
+					// Watch message
+					player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Starting to watch " + name + " ...");
+
+					Bukkit.getScheduler().runTaskAsynchronously(CommandBlockHelper.PLUGIN, () -> {
+						final RedstoneGraph graph;
+						try {
+							graph = RedstoneGraph.load(graphFile);
+						} catch (IOException e) {
+							CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot load redstone graph " + name + ".", e);
+							Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () ->
+									player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot load scanned music " + name + "."));
+							return;
+						}
+
+						Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+							final World world = Bukkit.getWorld(graph.getWorld());
+							if (world == null){
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " World " + graph.getWorld() + " is not loaded.");
+								return;
+							}
+							if (ContraptionWatcher.isWatching(name) || ScanCoordinator.getInstance().isScanning(name)){
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " " + name + " is already scanned or watched.");
+								return;
+							}
+
+							final long root = graph.getPosition(graph.getRoot());
+							final Location start = new Location(world, BlockPos.getX(root), BlockPos.getY(root), BlockPos.getZ(root));
+							ContraptionWatcher.watch(player, name, start, getPropagation(), getParallelism());
+						});
 					});
-					tickable.addToQueue(startLoc, 0, 1, true);
-					tickable.start(0, 0, true);
 				})
 				.register();
+
+		// Stops keeping datapack of a contraption up to date
+		new CommandAPICommand("savemusic")
+				.withShortDescription("Stops watching scanned music.")
+				.withFullDescription("This command stops updating the datapack of a contraption started by /savemusic watch." + ChatColor.RED +
+						" This command can only executed by players!")
+				.withPermission(CommandPermission.OP)
+				// Arguments
+				.withArguments(new LiteralArgument("unwatch"))
+				.withArguments(new StringArgument("Datapack Name"))
+				// can only be executed by players
+				.executesPlayer((player, args) -> {
+					final String name = ((String) args[0]).toLowerCase();
+					if (ContraptionWatcher.unwatch(name)) player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Stopped watching " + name + ".");
+					else player.sendMessage(ChatColor.RED + name + " is not watched!");
+				})
+				.register();
+
+		// Exports saved graph of a scanned contraption again, without scanning the world
+		new CommandAPICommand("savemusic")
+				.withShortDescription("Saves previously scanned music as a datapack again.")
+				.withFullDescription("This command generates asynchronously a datapack from the redstone graph which was saved " +
+						"when the music contraption was scanned or watched. The world is not read or modified." + ChatColor.RED +
+						" This command can only executed by players!")
+				.withPermission(CommandPermission.OP)
+				// Arguments
+				.withArguments(new LiteralArgument("export"))
+				.withArguments(new StringArgument("Graph Name"))
+				.withArguments(new StringArgument("Datapack Name"))
+				// can only be executed by players
+				.executesPlayer((player, args) -> {
+					final String graphName = ((String) args[0]).toLowerCase();
+					final String name = ((String) args[1]).toLowerCase();
+
+					// Graph has to be saved before, a graph saved by watching is used if it is newer
+					final Path scannedFile = MusicScanTickable.getGraphFile(graphName), watchedFile = MusicScanTickable.getWatchedGraphFile(graphName);
+					final Path graphFile = watchedFile.toFile().lastModified() > scannedFile.toFile().lastModified() ? watchedFile : scannedFile;
+					if (!Files.exists(graphFile)){
+						player.sendMessage(ChatColor.RED + "There is no scanned music called " + graphName + "!");
+						return;
+					}
+					if (DatapackManager.getInstance().exists(name)){
+						player.sendMessage(ChatColor.RED + "Datapack " + name + " already exists!");
+						return;
+					}
+					if (ScanCoordinator.getInstance().isScanning(name) || !EXPORTING.add(name)){
+						player.sendMessage(ChatColor.RED + "Datapack " + name + " is already being created!");
+						return;
+					}
+
+					// Export start message
+					player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + "Starting to export ...");
+
+					final RedstoneGraph.Propagation propagation = getPropagation();
+					Bukkit.getScheduler().runTaskAsynchronously(CommandBlockHelper.PLUGIN, () -> {
+						final MusicFunctionWriter writer = new MusicFunctionWriter(name);
+						try {
+							writer.write(RedstoneGraph.load(graphFile), propagation, null);
+						} catch (IOException e) {
+							CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot load redstone graph " + graphName + ".", e);
+							Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+								EXPORTING.remove(name);
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot load scanned music " + graphName + ".");
+							});
+							return;
+						} catch (RuntimeException e) {
+							// Staged datapack is discarded after writer thread stopped writing into it, e.g. datapack was created meanwhile
+							CommandBlockHelper.LOGGER.log(Level.WARNING, "Export of " + name + " failed.", e);
+							writer.written().whenComplete((ignored, ex) -> {
+								discardStaged(name);
+								Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+									EXPORTING.remove(name);
+									player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot export " + name + ": " + e.getMessage());
+								});
+							});
+							return;
+						}
+
+						// Function tree is built from written functions
+						try {
+							writer.written().join();
+						} catch (CompletionException e) {
+							CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot write datapack " + name + ".", e.getCause());
+							discardStaged(name);
+							Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+								EXPORTING.remove(name);
+								player.sendMessage(ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot write datapack " + name + ".");
+							});
+							return;
+						}
+						Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> {
+							try {
+								finishDatapack(List.of(player), name, "Export finished!");
+							} finally {
+								EXPORTING.remove(name);
+							}
+						});
+					});
+				})
+				.register();
+	}
+
+	/**
+	 * Creates function tree of written datapack and reloads datapacks. Has to be called on server thread.
+	 * @param players Players who are informed.
+	 * @param name Name of datapack.
+	 * @param finishedMsg Message sent to players when datapack is complete.
+	 * @return Returns true if datapack was committed.
+	 */
+	private static boolean finishDatapack(List<Player> players, String name, String finishedMsg){
+		// Check if functions are created. If not -> message
+		final Datapack staged = DatapackManager.getInstance().getStaged(name);
+		if (staged == null || !staged.getPath().resolve("data").resolve(name).resolve("functions").toFile().exists()){
+			sendMessage(players, ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " No music blocks are found. Cannot create Datapack");
+			discardStaged(name);
+			return false;
+		}
+
+		// Create function tree while datapack is not visible yet
+		try {
+			calcTreeFunctions(staged, name);
+		} catch (IOException e) {
+			discardStaged(name);
+			throw new RuntimeException(e);
+		}
+
+		// Complete datapack becomes visible at once, packed into a single file if configured
+		try {
+			DatapackManager.getInstance().commit(name, CommandBlockHelper.PLUGIN.getConfig().getBoolean("savemusic.zip", false));
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot commit datapack " + name + ".", e);
+			sendMessage(players, ChatColor.AQUA + "[/savemusic] " + ChatColor.RED + " Cannot create Datapack " + name + ": " + e.getMessage());
+			discardStaged(name);
+			return false;
+		}
+
+		// Finished msg
+		sendMessage(players, ChatColor.AQUA + "[/savemusic] " + ChatColor.GOLD + finishedMsg);
+
+		// Reloading datapacks with fancy messages
+		sendMessage(players, ChatColor.DARK_AQUA + "[/reload] " + ChatColor.GOLD + "Now reloading Datapacks ...");
+		DatapackManager.getInstance().reload();
+		sendMessage(players, ChatColor.DARK_AQUA + "[/reload] " + ChatColor.GOLD + "Reloading of Datapacks finished. " +
+				"Your Datapack is " + ChatColor.YELLOW + name + ChatColor.GOLD + " is now available.");
+		return true;
+	}
+
+	/**
+	 * Deletes staged datapack with given name left by a failed generation.
+	 */
+	static void discardStaged(String name){
+		try {
+			DatapackManager.getInstance().discardStaged(name);
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot delete staged datapack " + name + ".", e);
+		}
+	}
+
+	/**
+	 * Sends given message to all online players.
+	 */
+	private static void sendMessage(List<Player> players, String message){
+		for (Player player : players) {
+			if (player.isOnline()) player.sendMessage(message);
+		}
+	}
+
+	/**
+	 * @return Returns a source reading chunk snapshots if scan is asynchronous, otherwise the live world.
+	 */
+	private static BlockSource createSource(World world, boolean async){
+		return async ? new SnapshotBlockSource(CommandBlockHelper.PLUGIN, world) : new WorldBlockSource(CommandBlockHelper.PLUGIN, world);
+	}
+
+	/**
+	 * @return Returns what should happen to scanned blocks as configured in config.yml.
+	 */
+	private static MusicScanTickable.Removal getRemoval(){
+		final String removal = CommandBlockHelper.PLUGIN.getConfig().getString("savemusic.removal", "deferred");
+		try {
+			return MusicScanTickable.Removal.valueOf(removal.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Unknown removal " + removal + " in config.yml, using deferred.");
+			return MusicScanTickable.Removal.DEFERRED;
+		}
+	}
+
+	/**
+	 * @return Returns in which order scanned blocks are processed as configured in config.yml.
+	 */
+	private static RedstoneGraph.Propagation getPropagation(){
+		final String propagation = CommandBlockHelper.PLUGIN.getConfig().getString("savemusic.propagation", "earliest");
+		try {
+			return RedstoneGraph.Propagation.valueOf(propagation.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Unknown propagation " + propagation + " in config.yml, using earliest.");
+			return RedstoneGraph.Propagation.EARLIEST;
+		}
+	}
+
+	/**
+	 * @return Returns amount of threads compiling an asynchronous scan as configured in config.yml. 0 means all cores but one.
+	 */
+	private static int getParallelism(){
+		final int parallelism = CommandBlockHelper.PLUGIN.getConfig().getInt("savemusic.parallelism", 0);
+		if (parallelism > 0) return parallelism;
+		return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	/**
+	 * @return Returns seconds between two checkpoints of a scan as configured in config.yml. 0 disables checkpoints.
+	 */
+	private static int getCheckpointInterval(){
+		return Math.max(0, CommandBlockHelper.PLUGIN.getConfig().getInt("savemusic.checkpoint-interval", 30));
 	}
 
 	// Tree creating functions
@@ -98,13 +524,13 @@ public class MusicScanCommand {
 
 	/**
 	 * Calculate from leave nodes corresponding node until root is reached.
+	 * @param datapack Datapack containing leave nodes.
 	 * @param name Name of the datapack containing leave nodes.
 	 * @throws IOException Throws an IOException if an I/O error occurs when opening the directory where the functions are located.
 	 */
-	private static void calcTreeFunctions(String name) throws IOException {
+	static void calcTreeFunctions(Datapack datapack, String name) throws IOException {
 		// Datapack folder functions -> Assuming datapack and functions are created before
-		final Datapack datapack = DatapackManager.getInstance().getOrCreate(name);
-		final Path fPath = DatapackManager.DATAPACK_FOLDER.resolve(name).resolve("data").resolve(name).resolve("functions");
+		final Path fPath = datapack.getPath().resolve("data").resolve(name).resolve("functions");
 
 		final Comparator<File> functionComp = (f1, f2) -> {
 			// Name looker
@@ -1,39 +1,90 @@
 package com.github.militalex.commands;
 
 import com.github.militalex.main.CommandBlockHelper;
-import com.github.militalex.util.CommandUtil;
-import com.github.militalex.util.Tuple;
-import com.github.militalex.util.datapack.Datapack;
-import com.github.militalex.util.datapack.DatapackManager;
-import com.github.militalex.util.tickables.CollectionTickable;
+import com.github.militalex.util.tickables.BudgetedTickable;
+import com.github.militalex.util.tickables.TickBudget;
+import com.github.militalex.util.world.BlockPos;
+import com.github.militalex.util.world.BlockPosMap;
+import com.github.militalex.util.world.BlockPosQueue;
+import com.github.militalex.util.world.BlockSource;
+import com.github.militalex.util.world.ChunkRemovalTickable;
+import com.github.militalex.util.world.SnapshotBlockSource;
+import com.github.militalex.util.world.UndoJournal;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.Sound;
-import org.bukkit.block.CommandBlock;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 /**
- * This class is used by /savemusic to run an asynchronous latitude search from given redstone location. This class will collect
- * sound effects (Note blocks not yet) and stores them into functions in datapack.
+ * This class is used by /savemusic to run an asynchronous latitude search from given redstone location. The search compiles
+ * the music contraption into a {@link RedstoneGraph}, which is saved to disk and then evaluated to store the sound effects
+ * (Note blocks not yet) into functions in datapack. Every block is read once, afterwards the world is not needed anymore.
+ * The search is done in slices, so that a tick never takes longer than the given {@link TickBudget} allows.
+ * Blocks are read from a {@link BlockSource}. When it is a {@link SnapshotBlockSource} the tickable can be started asynchronously,
+ * so that only capturing chunks and the final removal of blocks is done on server thread. An asynchronous scan can compile
+ * independent branches of the contraption in parallel with a {@link ParallelGraphCompiler}.
+ * After compiling the graph is evaluated node by node within the same budget, so a synchronous scan never evaluates or
+ * writes a whole contraption in a single tick. Blocks are always removed chunk by chunk by a {@link ChunkRemovalTickable}.
+ * How scanned blocks are removed is defined by {@link Removal} and in which order they are processed by {@link RedstoneGraph.Propagation}.
+ * Removed blocks are recorded in an {@link UndoJournal}, so that they can be restored.
  *
  * @author Militalex
  * @version 1.0
  */
-public final class MusicScanTickable extends CollectionTickable<Object[]> {
+public final class MusicScanTickable extends BudgetedTickable {
 
 	/**
-	 * Defines how many score/delays should be contained in a function.
+	 * Defines what happens to the blocks of the contraption which were scanned.
 	 */
-	public static final int MAX_SCORE_PER_FUNCTION = 20;
+	public enum Removal {
+		/**
+		 * Blocks are removed chunk by chunk as soon as evaluation is done, while the datapack is still written.
+		 * A scan failing before does not remove anything, if writing fails afterwards blocks can be restored from the journal.
+		 */
+		INLINE,
+		/**
+		 * Blocks are removed chunk by chunk after the datapack has been committed. A failed scan or a datapack which is not
+		 * committed, e.g. because no music was found, does not remove anything.
+		 */
+		DEFERRED,
+		/**
+		 * Contraption stays intact.
+		 */
+		KEEP
+	}
 
 	/**
-	 * Contains all sounds to distinguish between minecraft sounds and custom sounds
+	 * @return Returns file the graph of the contraption with given name is saved in.
 	 */
-	private static final List<String> SOUNDS = Arrays.stream(Sound.values()).map(sound -> sound.getKey().toString()).toList();
+	static @NotNull Path getGraphFile(@NotNull String name){
+		return CommandBlockHelper.PLUGIN.getDataFolder().toPath().resolve("graphs").resolve(name + ".graph");
+	}
+
+	/**
+	 * @return Returns file the graph of the watched contraption with given name is saved in. It is kept apart from the graph
+	 * saved by scanning, because resuming a scan relies on that one.
+	 */
+	static @NotNull Path getWatchedGraphFile(@NotNull String name){
+		return CommandBlockHelper.PLUGIN.getDataFolder().toPath().resolve("graphs").resolve("watched").resolve(name + ".graph");
+	}
+
+	/**
+	 * @return Returns file the blocks removed by the scan with given name are recorded in.
+	 */
+	static @NotNull Path getJournalFile(@NotNull String name){
+		return CommandBlockHelper.PLUGIN.getDataFolder().toPath().resolve("journals").resolve(name + ".journal");
+	}
 
 	/**
 	 * Name of datapack which will be created.
@@ -41,406 +92,656 @@ public final class MusicScanTickable extends CollectionTickable<Object[]> {
 	private final String name;
 
 	/**
-	 * Code that should be executed after scanning.
+	 * Code that should be executed after scanning. Returns true if the datapack was committed.
 	 */
-	private final Consumer<Void> endConsumer;
+	private final Predicate<Void> endConsumer;
 
 	/**
-	 * @param name Name of datapack which will be created.
-	 * @param endConsumer Code that should be executed after scanning.
+	 * Source blocks are read from and removed in.
 	 */
-	MusicScanTickable(@NotNull String name, @NotNull Consumer<Void> endConsumer) {
-		super(CommandBlockHelper.PLUGIN, new ArrayDeque<>());
-		this.name = name;
-		this.endConsumer = endConsumer;
-	}
+	private final BlockSource source;
 
 	/**
-	 * Overrides cancel behaviour to flush rest in buffer nd executes endConsumer.
+	 * World which is scanned. All positions in queue are in this world.
 	 */
-	@Override
-	public void cancel() {
-		super.cancel();
-		// Saves rest in BufferList into datapack functions
-		flushAll(name);
+	private final World world;
 
-		// Executes something in the end
-		endConsumer.accept(null);
-	}
+	/**
+	 * Defines what happens to scanned blocks.
+	 */
+	private final Removal removal;
 
 	/**
-	 * Performs latitude search.
-	 * @param data Current value which is going to be processed.
+	 * Collects blocks when removal is {@link Removal#INLINE} or {@link Removal#DEFERRED}, otherwise null.
 	 */
-	@Override
-	protected void runOn(Object @NotNull [] data) {
-		// Remove from queue and extract data
-		remove(data);
-		final Location curLoc = (Location) data[0];
-		final int score = (int) data[1];
-		final int sLength = (int) data[2];
-		final boolean propagate = (boolean) data[3];	// Defines if natural block should propagate processing
-
-		// Material depend behavior decision
-		boolean delFlag = false;	// Defines if processed block should be replaced with air
-		final Material curMat = curLoc.getBlock().getType();
-		if (curMat.isAir()) return;	// Skip air
+	private final ChunkRemovalTickable remover;
 
-		// general block redstone behavior
-		if (curMat.isBlock() && curMat.isOccluding() && propagate) {
-			processNaturalBlock(curLoc, score, sLength);
-			delFlag = true;
-		}
+	/**
+	 * Records removed blocks, so that they can be restored with /savemusic undo. Null when removal is {@link Removal#KEEP}.
+	 */
+	private final UndoJournal journal;
 
-		// Redstone behaviour
-		if (curMat == Material.REDSTONE_WIRE) {
-			processRedstoneWire(curLoc, score, sLength);
-			delFlag = true;
-		}
-		// Redstone repeater behaviour
-		else if (curMat == Material.REPEATER) {
-			processRepeater(curLoc, score, sLength);
-			delFlag = true;
-		}
-		// Redstone comparator behaviour is not supported
-		else if (curMat == Material.COMPARATOR) CommandBlockHelper.LOGGER.log(Level.WARNING, "Comparator are not allowed!");
-			// Command block behaviour
-		else if (curMat == Material.COMMAND_BLOCK || curMat == Material.REPEATING_COMMAND_BLOCK || curMat == Material.CHAIN_COMMAND_BLOCK) {
-			// Extract CmdBlock and Command
-			final CommandBlock commandBlock = (CommandBlock) curLoc.getBlock().getState();
-			String command = commandBlock.getCommand();
-			if (command.startsWith("/")) command = command.substring(1);
-
-			// Process commandblock in general
-			processCommandblock(commandBlock, score, sLength);
-
-			// Linphator Music-Slider
-			if ((command.startsWith("setblock") && (command.contains("redstone_block") || command.contains("air"))) || command.contains("clone"))
-				processMusicSlider(curLoc, score, command);
-
-				// finally playsound command handler
-			else if (command.contains("playsound")) processPlaySoundCommandBlock(name, score, sLength, command, curMat == Material.REPEATING_COMMAND_BLOCK);
-
-			delFlag = true;
-		}
+	/**
+	 * Defines in which order reached blocks are processed when graph is evaluated.
+	 */
+	private final RedstoneGraph.Propagation propagation;
 
-		// TODO: Implement Noteblock support
+	/**
+	 * Rules reporting where a signal goes from a block.
+	 */
+	private final RedstoneRules rules;
 
-		// Delete block if flag is set
-		if (delFlag){
-			curLoc.getBlock().setType(Material.AIR, false);
-		}
-	}
+	/**
+	 * Receives what rules report for the expanded block, reused by every expansion.
+	 */
+	private final EdgeSink sink = new EdgeSink();
 
 	/**
-	 * Adds a new location to process in queue if it is not air
-	 * @param newLoc New Location which should be processed.
-	 * @param score Score/Delay of next location.
-	 * @param sLength Current length of signal.
-	 * @param propagate Defines if block should trigger more processing.
+	 * Collects nodes and edges of scanned contraption.
 	 */
-	public void addToQueue(@NotNull Location newLoc, int score, int sLength, boolean propagate){
-		if (newLoc.getBlock().getType().isAir()) return;
-		add(new Object[]{newLoc, score, sLength, propagate});
-	}
+	private final RedstoneGraph.Builder graph;
 
 	/**
-	 * Adds locations to queue which are direct surrounded by given location, without diagonal connection.
-	 *
-	 * @param curLoc Location where surrounding is added.
-	 * @param score  Score/Delay of next locations.
+	 * Queue containing blocks which have to be expanded. The head of the queue is the cursor, where scanning continues on next tick.
+	 * The score column contains the node of the block and the flags column {@link MusicScanTickable#PROPAGATE}.
 	 */
-	private void addSurrounding(@NotNull Location curLoc, int score) {
-		addToQueue(curLoc.clone().add(-1, 0, 0), score, 1, false);
-		addToQueue(curLoc.clone().add(1, 0, 0), score, 1, false);
-		addToQueue(curLoc.clone().add(0, 1, 0), score, 1, false);
-		addToQueue(curLoc.clone().add(0, -1, 0), score, 1, false);
-		addToQueue(curLoc.clone().add(0, 0, 1), score, 1, false);
-		addToQueue(curLoc.clone().add(0, 0, -1), score, 1, false);
-	}
+	private final BlockPosQueue queue;
 
-	// Block processing
+	/**
+	 * Flag of {@link MusicScanTickable#queue} marking that a natural block is reached by a propagating signal.
+	 */
+	private static final int PROPAGATE = 1;
 
-	private void processNaturalBlock(@NotNull Location curLoc, int score, int signalLength){
-		if (!curLoc.getBlock().getType().isBlock() || !curLoc.getBlock().getType().isSolid())
-			throw new IllegalArgumentException("Only natural solid redstone electrified " +
-					"blocks are processed here, nothing else. But it was " + curLoc.getBlock().getType());
+	// Flags of nodes
 
-		// Simulate Piston signal shortener
-		if (curLoc.clone().subtract(0, 1, 0).getBlock().getType() == Material.STICKY_PISTON){
-			final var states = CommandUtil.getBlockStates(curLoc.clone().subtract(0, 1, 0).getBlock().getState());
-			if (states.get("facing").equals("up")) signalLength = 1;
-		}
+	/**
+	 * Block was added to queue, respectively added to queue to be expanded as natural block.
+	 */
+	private static final int QUEUED = 1, QUEUED_PROPAGATE = 2;
 
-		// Complex for-loop enable iterating only over direct block neighbors without diagonal neighbours
-		for (int dx = -1; dx <= 1; dx ++){
-			for (int dy = -1; dy <= 1; dy ++){
-				if (dx!= 0 && Math.abs(dx) == Math.abs(dy)) continue;
-				for (int dz = -1; dz <= 1; dz ++){
-					if (dx == 0 && dy == 0 && dz == 0) continue;
-					if (dx!= 0 && Math.abs(dx) == Math.abs(dz)) continue;
-					if (dx == 0 && dy!= 0 && (Math.abs(dy) == Math.abs(dz))) continue;
-
-					final Location newLoc = curLoc.clone().add(dx, dy, dz);
-
-					// Chain cmd blocks are disabled because they can only triggerd by commandblocks
-					if (newLoc.getBlock().getType() != Material.CHAIN_COMMAND_BLOCK) {
-						addToQueue(newLoc, score, signalLength, false);
-					}
-				}
-			}
-		}
-	}
+	/**
+	 * Material specific behaviour of block has been expanded.
+	 */
+	private static final int EXPANDED = 4;
+
+	/**
+	 * Stores for every reached block its node in the score column and its flags.
+	 */
+	private final BlockPosMap nodes;
 
-	public void processRedstoneWire(Location curLoc, int score, int signalLength){
-		if (curLoc.getBlock().getType() != Material.REDSTONE_WIRE) throw new IllegalArgumentException("Redstone wire is processed here, nothing else.");
+	/**
+	 * Stores for every position a music slider places a block at its virtual node in the score column.
+	 */
+	private final BlockPosMap sliders;
 
-		// Get BlockStates
-		final HashMap<String, String> redstoneState = CommandUtil.getBlockStates(curLoc.getBlock().getState());
+	/**
+	 * Node of start location or -1.
+	 */
+	private int root = -1;
 
-		// Add Block Redstone is lying on to queue
-		addToQueue(curLoc.clone().subtract(0, 1, 0), score, signalLength, true);
+	/**
+	 * Location signal starts at or null if not set.
+	 */
+	private Location start;
+
+	/**
+	 * Amount of threads compiling the graph. If it is above 1, the whole graph is compiled by a {@link ParallelGraphCompiler}
+	 * in the first step, so the tickable has to be started asynchronously.
+	 */
+	private final int parallelism;
 
-		// Add Block to queue which Redstone would power by running into
-		redstoneState.forEach((key, value) -> {
-			// Ignore power and unconnected sides
-			if (key.equals("power")) return;
-			if (value.equals("none")) return;
+	/**
+	 * Graph compiled by {@link ParallelGraphCompiler} or null.
+	 */
+	private RedstoneGraph parallelGraph;
 
-			// calculate direction step depending on side
-			int addX = key.equals("east") ? 1 : key.equals("west") ? -1 : 0;
-			int addZ = key.equals("south") ? 1 : key.equals("north") ? -1 : 0;
+	/**
+	 * Nanoseconds between two checkpoints or 0 if no checkpoints are written. Parallel compiling writes a single checkpoint
+	 * containing the whole graph after its tasks are merged.
+	 */
+	private final long checkpointInterval;
 
-			// create new Location
-			final Location newLoc = curLoc.clone();
+	/**
+	 * Time last checkpoint was written.
+	 */
+	private long lastCheckpoint = System.nanoTime();
 
-			if (value.equals("side")){
-				// add Block to queue Redstone is facing in
-				newLoc.add(addX, 0, addZ);
-				addToQueue(newLoc, score, signalLength, true);
+	/**
+	 * Estimated bytes used per reached block, per edge and per queued block, including unused capacity of the arrays.
+	 */
+	static final int NODE_BYTES = 96, EDGE_BYTES = 40, QUEUED_BYTES = 48;
 
-				// enables redstone to go downwards if not on glass or sth. like that
-				if (!curLoc.getBlock().getType().isOccluding()) return;
+	/**
+	 * Maximum estimated bytes the scan may use or 0 if there is no limit.
+	 */
+	private long memoryQuota;
 
-				final Location newLoc2 = newLoc.clone();
-				newLoc2.subtract(0, 1, 0);
-				addToQueue(newLoc2, score, signalLength, true);
-			}
-			else {	// Invariant: value == "up"
-				// enables redstone to go upwards
-				newLoc.add(addX, 1, addZ);
-				addToQueue(newLoc, score, signalLength, true);
-			}
-		});
+	/**
+	 * Identifies start location in {@link ScanCache} or null if cache is not used.
+	 */
+	private String cacheKey;
+
+	/**
+	 * Defines if cache was checked and if graph was reused from it.
+	 */
+	private boolean cacheChecked, reused;
+
+	/**
+	 * Defines if scan failed, so that no work is left and nothing is written.
+	 */
+	private boolean failed;
+
+	// Evaluation, started when compiling is done
+
+	/**
+	 * Compiled graph or null while compiling.
+	 */
+	private RedstoneGraph compiled;
+
+	/**
+	 * Writes timeline of compiled graph into datapack or null while compiling.
+	 */
+	private MusicFunctionWriter writer;
+
+	/**
+	 * Evaluation of compiled graph or null while compiling.
+	 */
+	private RedstoneGraph.Evaluation evaluation;
+
+	/**
+	 * Defines if evaluation is done and every function is handed over to writer.
+	 */
+	private boolean evaluated;
+
+	/**
+	 * Hash of region of contraption, computed before blocks are removed.
+	 */
+	private long hash;
+
+	/**
+	 * Nanoseconds compiling took.
+	 */
+	private long compileTime;
+
+	/**
+	 * Hash of region of contraption if graph was reused from cache.
+	 */
+	private long cachedHash;
+
+	/**
+	 * Code that should be executed on server thread when scan fails.
+	 */
+	private Consumer<RuntimeException> failConsumer = e -> { };
+
+	/**
+	 * Statistics logged after scanning.
+	 */
+	private int expanded;
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * @param name Name of datapack which will be created.
+	 * @param source Source blocks are read from and removed in.
+	 * @param budget Budget deciding how much time scanning and deferred removal can take per tick.
+	 * @param removal Defines what happens to scanned blocks.
+	 * @param propagation Defines in which order reached blocks are processed when graph is evaluated.
+	 * @param parallelism Amount of threads compiling the graph. Values above 1 require a thread safe source and an asynchronous start.
+	 * @param checkpointInterval Seconds between two checkpoints or 0 if no checkpoints should be written.
+	 * @param endConsumer Code that should be executed after scanning. Returns true if the datapack was committed.
+	 */
+	MusicScanTickable(@NotNull String name, @NotNull BlockSource source, @NotNull TickBudget budget, @NotNull Removal removal,
+					  @NotNull RedstoneGraph.Propagation propagation, int parallelism, int checkpointInterval, @NotNull Predicate<Void> endConsumer) {
+		this(name, source, budget, removal, propagation, parallelism, checkpointInterval, new RedstoneGraph.Builder(source.getWorld().getName()),
+				new BlockPosMap(1024), new BlockPosMap(64), new BlockPosQueue(1024), endConsumer);
 	}
 
-	public void processRepeater(Location curLoc, int score, int signalLength){
-		if (curLoc.getBlock().getType() != Material.REPEATER) throw new IllegalArgumentException("Redstone wire is processed here, nothing else.");
+	/**
+	 * Creates a tickable continuing the scan stored in given checkpoint. Compiling is always sequential.
+	 * @param checkpoint Checkpoint of scan.
+	 * @param source Source blocks are read from and removed in. It has to read the world of the checkpoint.
+	 * @param budget Budget deciding how much time scanning and deferred removal can take per tick.
+	 * @param checkpointInterval Seconds between two checkpoints or 0 if no checkpoints should be written.
+	 * @param endConsumer Code that should be executed after scanning. Returns true if the datapack was committed.
+	 */
+	MusicScanTickable(@NotNull ScanCheckpoint checkpoint, @NotNull BlockSource source, @NotNull TickBudget budget,
+					  int checkpointInterval, @NotNull Predicate<Void> endConsumer) {
+		this(checkpoint.name(), source, budget, checkpoint.removal(), checkpoint.propagation(), 1, checkpointInterval,
+				checkpoint.graph(), checkpoint.nodes(), checkpoint.sliders(), checkpoint.queue(), endConsumer);
+		if (!world.getName().equals(checkpoint.world()))
+			throw new IllegalArgumentException("Checkpoint of " + name + " belongs to world " + checkpoint.world() + ".");
+		this.root = checkpoint.root();
+		this.expanded = checkpoint.expanded();
+	}
 
-		// Get BlockStates
-		final HashMap<String, String> repeaterStates = CommandUtil.getBlockStates(curLoc.getBlock().getState());
-		if (repeaterStates.get("locked").equals("true")){
-			curLoc.getBlock().setType(Material.AIR, false);
-			return;
-		}
-		final String facing = repeaterStates.get("facing");
-		final int delay = Integer.parseInt(repeaterStates.get("delay"));
-
-		// Calculate Repeater signal stretch
-		switch (delay) {
-			case 1 -> { if (signalLength < 2) signalLength = 2; }
-			case 2 -> { if (signalLength < 4) signalLength = 4; }
-			case 3 -> { if (signalLength < 6) signalLength = 6; }
-			case 4 -> { if (signalLength < 8) signalLength = 8; }
-		}
+	private MusicScanTickable(@NotNull String name, @NotNull BlockSource source, @NotNull TickBudget budget, @NotNull Removal removal,
+							  @NotNull RedstoneGraph.Propagation propagation, int parallelism, int checkpointInterval,
+							  @NotNull RedstoneGraph.Builder graph, @NotNull BlockPosMap nodes, @NotNull BlockPosMap sliders,
+							  @NotNull BlockPosQueue queue, @NotNull Predicate<Void> endConsumer) {
+		super(CommandBlockHelper.PLUGIN, budget);
+		this.name = name;
+		this.source = source;
+		this.world = source.getWorld();
+		this.removal = removal;
+		this.propagation = propagation;
+		this.parallelism = parallelism;
+		this.checkpointInterval = checkpointInterval * 1_000_000_000L;
+		this.rules = new RedstoneRules(source);
+		this.graph = graph;
+		this.nodes = nodes;
+		this.sliders = sliders;
+		this.queue = queue;
+		this.remover = removal != Removal.KEEP ? new ChunkRemovalTickable(CommandBlockHelper.PLUGIN, world, budget) : null;
+		this.journal = removal != Removal.KEEP ? new UndoJournal(getJournalFile(name), world.getName()) : null;
+		this.endConsumer = endConsumer;
+	}
 
-		// Calculate direction step depending on facing
-		int addX = facing.equals("east") ? -1 : facing.equals("west") ? 1 : 0;
-		int addZ = facing.equals("south") ? -1 : facing.equals("north") ? 1 : 0;
+	/**
+	 * Sets maximum estimated bytes the scan may use. A scan exceeding it fails. 0 means there is no limit.
+	 */
+	public void setMemoryQuota(long memoryQuota){
+		this.memoryQuota = memoryQuota;
+	}
 
-		// Create new Location
-		final Location newLoc = curLoc.clone().add(addX, 0, addZ);
-		addToQueue(newLoc, score + 2 * delay, signalLength, true);
+	/**
+	 * Sets code that should be executed on server thread when scan fails. Nothing is written or removed by a failed scan.
+	 */
+	public void onFailure(@NotNull Consumer<RuntimeException> failConsumer){
+		this.failConsumer = failConsumer;
 	}
 
-	public void processCommandblock(CommandBlock block, int score, int sLength){
-		final HashMap<String,String> blockStates = CommandUtil.getBlockStates(block);
-		final String facing = blockStates.get("facing");
+	/**
+	 * @return Returns estimated bytes used by this scan.
+	 */
+	public long estimateMemory(){
+		return estimateMemory(nodes.size() + sliders.size(), graph.getEdgeCount(), queue.size());
+	}
 
-		// calculate direction step depending on side
-		int addX = facing.equals("east") ? 1 : facing.equals("west") ? -1 : 0;
-		int addY = facing.equals("up") ? 1 : facing.equals("down") ? -1 : 0;
-		int addZ = facing.equals("south") ? 1 : facing.equals("north") ? -1 : 0;
+	/**
+	 * @return Returns estimated bytes used by a scan with given amount of nodes, edges and queued blocks.
+	 */
+	static long estimateMemory(int nodes, int edges, int queued){
+		return (long) nodes * NODE_BYTES + (long) edges * EDGE_BYTES + (long) queued * QUEUED_BYTES;
+	}
 
-		// Chain cmd blocks are triggered
-		final Location newLoc = block.getLocation().clone().add(addX, addY, addZ);
-		if (newLoc.getBlock().getType() == Material.CHAIN_COMMAND_BLOCK){
-			addToQueue(newLoc, score, sLength, false);
-		}
+	/**
+	 * Enables reusing the graph of the last scan from the same start location if the contraption did not change since then.
+	 * The contraption is hashed on the thread scanning, so the tickable has to be started asynchronously.
+	 * @param cacheKey Identifies start location.
+	 */
+	public void useCache(@NotNull String cacheKey){
+		this.cacheKey = cacheKey;
 	}
 
-	public void processMusicSlider(Location curLoc, int score, String command){
-		if ((!command.startsWith("setblock") || (!command.contains("redstone_block") && !command.contains("air"))) && !command.startsWith("clone"))
-			throw new IllegalArgumentException(command + " is not part of music slider.");
-
-		// Extract position from command
-		int x, y, z;
-		final Scanner scanner = new Scanner(command);
-		scanner.next();
-		if (command.startsWith("clone")) { scanner.next(); scanner.next(); scanner.next(); scanner.next(); scanner.next(); scanner.next(); }
-		x = CommandUtil.getCordFromTildeOrNumber(curLoc.getBlockX(),  scanner.next());
-		y = CommandUtil.getCordFromTildeOrNumber(curLoc.getBlockY(),  scanner.next());
-		z = CommandUtil.getCordFromTildeOrNumber(curLoc.getBlockZ(),  scanner.next());
-		final Location newLoc = new Location(curLoc.getWorld(), x, y, z);
-
-		// Add Surrounding (inclusive clone underneath)
-		addSurrounding(newLoc, score + 1);
+	/**
+	 * Sets location the signal starts at. Has to be called before starting.
+	 * @throws IllegalArgumentException if block at given location does not react on a signal.
+	 */
+	public void setStart(@NotNull Location startLoc){
+		start = startLoc;
+		root = reach(startLoc.getBlockX(), startLoc.getBlockY(), startLoc.getBlockZ(), true);
+		if (root == -1) throw new IllegalArgumentException("Block at " + startLoc + " does not react on a signal.");
 	}
 
-	public void processPlaySoundCommandBlock(String name, int score, int sLength, String command, boolean isRepeating){
-		if (!command.contains("playsound"))
-			throw new IllegalArgumentException(command + " cannot be a playsound command.");
+	/**
+	 * Overrides cancel behaviour to remove scanned blocks and executes endConsumer after the graph is evaluated. If scanning was
+	 * asynchronous this is done on server thread. It is done after every function of the datapack is written to disk, only
+	 * inline removal starts before. Chunks held by the source are released afterwards. A failed scan is only stopped.
+	 */
+	@Override
+	public void cancel() {
+		super.cancel();
+		if (failed) return;
 
-		// Playsound rearrangement
-		final StringBuilder modCmdBuilder = new StringBuilder("as @a[tag=musik_play] at @s run ");
+		final RedstoneGraph.Stats stats = evaluation.getStats();
 
-		// Remove prefixed execute stuff
-		final Scanner scanner = new Scanner(command);
-		while (scanner.hasNext()){
-			if (scanner.next().equals("playsound")) {
-				modCmdBuilder.append("playsound ");
-				break;
+		// Blocks are removed while writer thread is still writing
+		if (removal == Removal.INLINE) startRemoval();
+
+		// Functions are still written by writer thread
+		writer.written().whenComplete((ignored, e) -> {
+			if (e != null) {
+				fail(new IllegalStateException("Cannot write datapack " + name + ".", e instanceof CompletionException ? e.getCause() : e));
+				return;
 			}
-		}
+			ScanCheckpoint.delete(name);
 
-		// Extract sound effect
-		final String soundEffect = scanner.next().replace("minecraft:", "");
-		modCmdBuilder.append(soundEffect).append(" ");
+			if (cacheKey != null) {
+				try {
+					new ScanCache(name, hash, compiled.getNodeCount(), compiled.getEdgeCount()).save(cacheKey);
+				} catch (IOException ex) {
+					CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot save scan cache of " + name + ".", ex);
+				}
+			}
 
-		// Extract sound fader and set it to record or voice
-		scanner.next();
-		if (SOUNDS.contains("minecraft:" + soundEffect) || soundEffect.startsWith("ins_")
-				|| soundEffect.startsWith("fx_") || soundEffect.startsWith("klang_")) modCmdBuilder.append("record ");
-		else modCmdBuilder.append("voice ");
+			CommandBlockHelper.LOGGER.log(Level.INFO, "Scan of " + name + " expanded " + expanded + " blocks into " + compiled.getNodeCount()
+					+ " nodes and " + compiled.getEdgeCount() + " edges in " + compileTime / 1_000_000 + "ms. Evaluation processed "
+					+ stats.processed() + " nodes, dropped " + stats.dropped() + " duplicate arrivals, peak frontier size was " + stats.peakFrontierSize() + ".");
 
-		// Extract executor and set it to @s
-		scanner.next();
-		modCmdBuilder.append("@s ");
+			if (Bukkit.isPrimaryThread()) finish();
+			else Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, this::finish);
+		});
+	}
 
-		// Extract location and set it to 3x ~
-		for (int i = 0; i < 3; i++) {
-			scanner.next();
-			modCmdBuilder.append("~ ");
+	/**
+	 * Builds and saves the graph and starts evaluating it into a new datapack.
+	 */
+	private void startEvaluation(){
+		compiled = parallelGraph != null ? parallelGraph : graph.build(root);
+		compileTime = System.nanoTime() - startTime;
+
+		// Hashed before blocks are removed
+		hash = cacheKey == null || reused ? cachedHash : ContraptionHash.compute(compiled, source);
+
+		// Saves graph, so that the contraption can be exported again without scanning
+		try {
+			compiled.save(getGraphFile(name));
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot save redstone graph of " + name + ".", e);
 		}
 
-		// Extract volume and pith if information is given
-		for (int i = 0; i < 2 && scanner.hasNext(); i++){
-			modCmdBuilder.append(scanner.next()).append(" ");
+		// Writes timeline into datapack and collects processed blocks
+		writer = new MusicFunctionWriter(name);
+		evaluation = writer.startWriting(compiled, propagation, (node, score, length) -> {
+			final byte kind = compiled.getKind(node);
+			if (kind != RedstoneGraph.COMPARATOR && kind != RedstoneGraph.SLIDER) removeBlock(compiled.getPosition(node));
+		});
+	}
+
+	/**
+	 * Hands remaining functions over to writer and completes journal.
+	 */
+	private void finishEvaluation(){
+		writer.finishWriting();
+
+		// Journal has to be complete before removal starts
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot write undo journal of " + name + ".", e);
+			}
 		}
+		evaluated = true;
+	}
 
-		// Add Command to corresponding datapack function
-		final String modCmd = modCmdBuilder.toString();
-		if (!isRepeating) addToDatapack(name, score, modCmd);
+	/**
+	 * Releases source and executes endConsumer. Has to be called on server thread.
+	 * Deferred removal is started afterwards and only if the datapack was committed, otherwise its journal is deleted.
+	 */
+	private void finish(){
+		source.close();
+
+		// Executes something in the end
+		final boolean committed = endConsumer.test(null);
+
+		if (removal != Removal.DEFERRED) return;
+		if (committed) startRemoval();
 		else {
-			for (int i = 0; i < sLength; i++){
-				addToDatapack(name, score + i, modCmd);
+			// Nothing is removed, so there is nothing to restore
+			try {
+				Files.deleteIfExists(getJournalFile(name));
+			} catch (IOException e) {
+				CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot delete undo journal of " + name + ".", e);
 			}
 		}
 	}
 
-	// Datapack stuff
+	/**
+	 * Starts removing collected blocks chunk by chunk on server thread.
+	 */
+	private void startRemoval(){
+		if (remover != null && remover.size() > 0) remover.start(0, 0, true);
+	}
+
+	@Override
+	protected boolean hasWork() {
+		return !failed && !evaluated;
+	}
 
 	/**
-	 * Reference to datapack corresponding.
+	 * Evaluation on server thread pauses while the writer thread is behind, so that queued functions do not grow without bound.
 	 */
-	private Datapack datapack;
+	@Override
+	protected boolean isPaused() {
+		return writer != null && writer.isBackedUp();
+	}
 
 	/**
-	 * Add given command to datapack, by buffering it and flushing it later when at least a function can be flushed.
+	 * Performs one step of latitude search by expanding the head of queue. After compiling one node of the graph is evaluated per step.
 	 */
-	private void addToDatapack(String name, int score, String command){
-		// Error when no datapack was created and it already exists
-		if (datapack == null && DatapackManager.getInstance().exists(name)) {
-			throw new IllegalArgumentException("Datapack " + name + " already exists. It is not possible to modify existent Datapack.");
-		}
-		// Creating new datapack
-		if (datapack == null) {
-			datapack = DatapackManager.getInstance().getOrCreate(name);
+	@Override
+	protected void step() {
+		try {
+			// Unchanged contraption does not have to be scanned
+			if (cacheKey != null && !cacheChecked && reuseCached()) return;
+
+			if (!queue.isEmpty()) compileStep();
+			else if (evaluation == null) startEvaluation();
+			else if (!evaluation.isDone()) evaluation.step();
+			else finishEvaluation();
+		} catch (RuntimeException e) {
+			// Failed scan is stopped without removing anything, no work is left so that it is not continued
+			failed = true;
+			queue.clear();
+
+			// Staged datapack is discarded after writer thread stopped writing into it
+			if (writer != null) writer.written().whenComplete((ignored, ex) -> fail(e));
+			else fail(e);
 		}
+	}
 
-		// Buffers command, method below flush's if needed.
-		addToBuffer(name, command, score);
+	/**
+	 * Compiles graph by expanding the head of queue. Parallel compiling compiles everything at once.
+	 */
+	private void compileStep(){
+		// Compile everything at once on multiple threads
+		if (parallelism > 1) {
+			final ParallelGraphCompiler compiler = new ParallelGraphCompiler(source, parallelism, memoryQuota);
+			parallelGraph = compiler.compile(start);
+			expanded = compiler.getExpanded();
+			queue.clear();
+
+			// Resumed scan only has to evaluate the merged graph
+			if (checkpointInterval > 0) saveCheckpoint(parallelGraph.toBuilder(), parallelGraph.getRoot(), new BlockPosMap(), new BlockPosMap());
+		}
+		else {
+			expandHead();
+			if (checkpointInterval > 0 && System.nanoTime() - lastCheckpoint > checkpointInterval) saveCheckpoint();
+		}
 	}
 
-	// Buffer functions
+	/**
+	 * Reuses graph of last scan from start location if the hash of its region did not change. Only checked once.
+	 * @return Returns true if graph is reused, so that nothing has to be scanned.
+	 */
+	private boolean reuseCached(){
+		cacheChecked = true;
+		final ScanCache cache = ScanCache.load(cacheKey);
+		if (cache == null) return false;
+		final Path graphFile = getGraphFile(cache.graph());
+		if (!Files.exists(graphFile)) return false;
+
+		final RedstoneGraph cached;
+		try {
+			cached = RedstoneGraph.load(graphFile);
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot load cached redstone graph " + cache.graph() + ".", e);
+			return false;
+		}
+
+		// Graph has to start at the same location and region must not have changed
+		final long startPos = BlockPos.pack(start.getBlockX(), start.getBlockY(), start.getBlockZ());
+		if (!cached.getWorld().equals(world.getName()) || cached.getPosition(cached.getRoot()) != startPos) return false;
+		final long hash = ContraptionHash.compute(cached, source);
+		if (hash != cache.hash()) return false;
+
+		CommandBlockHelper.LOGGER.log(Level.INFO, "Scan of " + name + " reuses graph of unchanged contraption " + cache.graph() + ".");
+		cachedHash = hash;
+		reused = true;
+		parallelGraph = cached;
+		queue.clear();
+		return true;
+	}
 
 	/**
-	 * Buffers a certain number of commands, sorts them by scores and enables function-wise flushing.
+	 * Handles a failed scan by releasing everything held by the source and executing failConsumer on server thread.
 	 */
-	private final PriorityQueue<Tuple<Integer,String>> BUFFER_LIST = new PriorityQueue<>(Comparator.comparingInt(Tuple::getKey));
+	private void fail(@NotNull RuntimeException e){
+		CommandBlockHelper.LOGGER.log(Level.WARNING, "Scan of " + name + " failed: " + e.getMessage(), e);
+		if (Bukkit.isPrimaryThread()) failed(e);
+		else Bukkit.getScheduler().runTask(CommandBlockHelper.PLUGIN, () -> failed(e));
+	}
+
+	private void failed(@NotNull RuntimeException e){
+		source.close();
+		MusicScanCommand.discardStaged(name);
+		failConsumer.accept(e);
+	}
 
 	/**
-	 * Counts amount of times buffer has flushed to determine point in time buffer should be flushed.
+	 * Writes current state of scan into its checkpoint file. A failing write does not stop the scan.
 	 */
-	private int fFlushPtr = 0;
+	private void saveCheckpoint(){
+		saveCheckpoint(graph, root, nodes, sliders);
+	}
 
 	/**
-	 * Add given command to buffer and flushes it automatically if enough commands are stored in buffer.
+	 * Writes given compiled state and the queue into checkpoint file of scan. A failing write does not stop the scan.
 	 */
-	private void addToBuffer(String name, String command, int score){
-		// Sets flush pointer to first if buffer was empty
-		if (BUFFER_LIST.isEmpty()) fFlushPtr = score;
+	private void saveCheckpoint(@NotNull RedstoneGraph.Builder graph, int root, @NotNull BlockPosMap nodes, @NotNull BlockPosMap sliders){
+		lastCheckpoint = System.nanoTime();
+		try {
+			new ScanCheckpoint(name, world.getName(), removal, propagation, root, expanded, graph, nodes, sliders, queue).save();
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot save checkpoint of scan " + name + ".", e);
+		}
+	}
 
-		// Add command to buffer
-		BUFFER_LIST.add(new Tuple<>(score, command));
+	/**
+	 * Expands head of queue.
+	 */
+	private void expandHead(){
+		// Extract data and remove from queue
+		final int x = queue.getX(), y = queue.getY(), z = queue.getZ();
+		final int node = queue.getScore();
+		final boolean propagate = (queue.getFlags() & PROPAGATE) != 0;	// Defines if natural block should propagate processing
+		queue.remove();
+		expanded++;
+
+		// Stop scan if it grows too large
+		if ((expanded & 1023) == 0 && memoryQuota > 0 && estimateMemory() > memoryQuota)
+			throw new IllegalStateException("Scan exceeds heap quota of " + memoryQuota / (1024 * 1024) + "MB.");
+
+		final Material curMat = source.getType(x, y, z);
+
+		// Material depend behaviour is expanded once, no matter how block is reached
+		final int index = nodes.indexOf(BlockPos.pack(x, y, z));
+		final int flags = nodes.getFlags(index);
+		if ((flags & EXPANDED) == 0) {
+			nodes.setFlags(index, flags | EXPANDED);
+			rules.expand(x, y, z, curMat, sink.reset(node, false));
+		}
 
-		// flushes three functions if commands of six functions are buffered
-		if (BUFFER_LIST.element().getKey() > fFlushPtr + MAX_SCORE_PER_FUNCTION * 6) {
-			flushFunction(name);
-			flushFunction(name);
-			flushFunction(name);
+		// general block redstone behavior
+		if (propagate) rules.expandNatural(x, y, z, sink.reset(node, true));
+	}
 
-			// Sets flush pointer to first if not empty
-			if (!BUFFER_LIST.isEmpty()){
-				fFlushPtr = BUFFER_LIST.element().getKey();
-			}
+	/**
+	 * Adds a node for given position if it does not exist and adds block to queue if it is not expanded the way it is reached.
+	 * @param propagate Defines if block is reached by a propagating signal.
+	 * @return Returns node of given position or -1 if block does not react on the signal.
+	 */
+	private int reach(int x, int y, int z, boolean propagate){
+		// Non propagating signals only reach redstone components, so sections without them are skipped
+		if (!propagate && !source.sectionContains(x, y, z)) return -1;
+		final Material mat = source.getType(x, y, z);
+		if (!RedstoneRules.reactsOn(mat, propagate)) return -1;
+
+		final long pos = BlockPos.pack(x, y, z);
+		int index = nodes.indexOf(pos);
+		if (index == -1) index = nodes.put(pos, graph.addNode(pos, RedstoneRules.getNodeKind(mat)), 0, 0);
+		final int node = nodes.getScore(index);
+
+		// Natural blocks are expanded once more when they are reached by a propagating signal
+		final boolean natural = propagate && RedstoneRules.isNatural(mat);
+		final int queued = natural ? QUEUED_PROPAGATE : QUEUED;
+		final int flags = nodes.getFlags(index);
+		if ((flags & queued) == 0) {
+			nodes.setFlags(index, flags | queued);
+			queue.add(x, y, z, node, 0, natural ? PROPAGATE : 0);
+
+			// Neighbouring chunks are read when the block is expanded, so they are loaded while it waits in queue
+			source.prefetchAround(x, z, RedstoneRules.REACH);
 		}
+		return node;
 	}
 
 	/**
-	 * flushes complete buffer
+	 * Records given block in journal and removes it as defined by {@link MusicScanTickable#removal}.
 	 */
-	public void flushAll(String name){
-		while (!BUFFER_LIST.isEmpty()){
-			flushFunction(name);
+	private void removeBlock(long pos){
+		final int x = BlockPos.getX(pos), y = BlockPos.getY(pos), z = BlockPos.getZ(pos);
+		if (journal != null) {
+			final BlockData data = source.getBlockData(x, y, z);
+			journal.record(x, y, z, data, RedstoneRules.isCommandBlock(data.getMaterial()) ? source.getCommandBlockNbt(x, y, z) : null);
 		}
+		if (remover != null) remover.add(x, y, z);
 	}
 
 	/**
-	 * Flushes only commands corresponding to a function from buffer.
+	 * Adds everything reported by {@link RedstoneRules} for a node to the graph. A single sink is reset for every expansion,
+	 * see {@link MusicScanTickable#sink}.
 	 */
-	public void flushFunction(String name){
-		final StringBuilder fBuilder = new StringBuilder();
-
-		// Determines intervall of scores function covers
-		final int fScore = BUFFER_LIST.element().getKey();	// first added score -> does not change anymore
-		int lScore = BUFFER_LIST.element().getKey();		// last added score  -> will be calculated below
-		int localMax = fScore + MAX_SCORE_PER_FUNCTION;		// relative maximum score
+	private final class EdgeSink implements RedstoneRules.Sink {
+
+		/**
+		 * Node which is expanded.
+		 */
+		private int node;
+
+		/**
+		 * Defines if natural block behaviour is expanded, so that edges are only followed by propagating signals.
+		 */
+		private boolean natural;
+
+		/**
+		 * Resets sink to expand given node.
+		 * @return Returns this sink.
+		 */
+		private EdgeSink reset(int node, boolean natural){
+			this.node = node;
+			this.natural = natural;
+			return this;
+		}
 
-		// Adds commands to the builder until the function has added all commands with interval [fscore,localMax] to the function.
-		while (!BUFFER_LIST.isEmpty() && BUFFER_LIST.element().getKey() < localMax) {
-			final var tuple = BUFFER_LIST.remove();
-			lScore = tuple.getKey();
-			final String cmd = tuple.getValue();
+		@Override
+		public void signal(int x, int y, int z, int delay, int lengthOp, int lengthArg, boolean propagate) {
+			final int targetNode = reach(x, y, z, propagate);
+			if (targetNode != -1) graph.addEdge(node, targetNode, delay, lengthOp, lengthArg, propagate, natural);
+		}
 
-			// modify command and make it an execute if score command with scores stored in tuples
-			fBuilder.append("execute if score ").append(name).append(" musik matches ").append(lScore).append(" ").append(cmd).append("\n");
+		@Override
+		public void slider(int x, int y, int z) {
+			final long pos = BlockPos.pack(x, y, z);
+			final int index = sliders.indexOf(pos);
+			final int sliderNode;
+			if (index != -1) sliderNode = sliders.getScore(index);
+			else {
+				// Add Surrounding (inclusive clone underneath) once per target
+				sliderNode = graph.addNode(pos, RedstoneGraph.SLIDER);
+				sliders.put(pos, sliderNode, 0, 0);
+				// Sink expands slider meanwhile, expanded node is restored afterwards
+				final int expandedNode = node;
+				final boolean expandedNatural = natural;
+				RedstoneRules.expandSurrounding(x, y, z, reset(sliderNode, false));
+				reset(expandedNode, expandedNatural);
+			}
+			graph.addEdge(node, sliderNode, 1, RedstoneRules.KEEP, 0, false, natural);
 		}
 
-		// Create function
-		assert datapack != null;
-		if (!fBuilder.toString().equals("")){
-			datapack.putCommandsIntoFunc(name, "musik_" + fScore + "_" + lScore, fBuilder.toString());
+		@Override
+		public void sound(@NotNull String command, boolean repeating) {
+			graph.setCommand(node, command, repeating);
 		}
 	}
 }
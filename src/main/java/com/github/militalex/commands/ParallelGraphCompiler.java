@@ -0,0 +1,353 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.util.world.BlockPos;
+import com.github.militalex.util.world.BlockPosQueue;
+import com.github.militalex.util.world.BlockSource;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a music contraption into a {@link RedstoneGraph} using multiple threads. Independent branches of the contraption
+ * are explored by {@link ForkJoinPool} tasks, which record what they expand into task local buffers. Every expansion is claimed
+ * by exactly one task. Afterwards the buffers are merged into one graph, whose nodes are numbered in breadth first order from
+ * the start, so the graph does not depend on how tasks were scheduled.
+ * <br>
+ * The {@link BlockSource} has to be thread safe for reading, e.g. a {@link com.github.militalex.util.world.SnapshotBlockSource}.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class ParallelGraphCompiler {
+
+	/**
+	 * Amount of pending expansions of a task, above which half of them are forked into a new task.
+	 */
+	private static final int FORK_THRESHOLD = 32;
+
+	// Kinds of expansions, stored as flags in task queues
+
+	/**
+	 * Material specific behaviour of a block.
+	 */
+	private static final int OWN = 0;
+
+	/**
+	 * Natural block behaviour of a block reached by a propagating signal.
+	 */
+	private static final int NATURAL = 1;
+
+	/**
+	 * Surrounding of a music slider target.
+	 */
+	private static final int SLIDER = 2;
+
+	private final BlockSource source;
+	private final World world;
+	private final RedstoneRules rules;
+	private final int parallelism;
+
+	/**
+	 * Maximum estimated bytes compiling may use or 0 if there is no limit.
+	 */
+	private final long memoryQuota;
+
+	/**
+	 * Estimated bytes used per expansion, including its claim, its record and its edges.
+	 */
+	private static final int EXPANSION_BYTES = 256;
+
+	/**
+	 * Packed positions which are already claimed by a task for every kind of expansion.
+	 */
+	private final List<Set<Long>> claimed = List.of(ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet());
+
+	/**
+	 * Amount of expansions done by all tasks. The heap quota is checked every 1024 expansions, no matter which task does them.
+	 */
+	private final AtomicInteger expansions = new AtomicInteger();
+
+	/**
+	 * Buffers of all tasks.
+	 */
+	private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param source Thread safe source blocks are read from.
+	 * @param parallelism Amount of threads used.
+	 * @param memoryQuota Maximum estimated bytes compiling may use or 0 if there is no limit.
+	 */
+	ParallelGraphCompiler(@NotNull BlockSource source, int parallelism, long memoryQuota) {
+		this.source = source;
+		this.world = source.getWorld();
+		this.rules = new RedstoneRules(source);
+		this.parallelism = parallelism;
+		this.memoryQuota = memoryQuota;
+	}
+
+	/**
+	 * Compiles contraption reached by a signal starting at given location.
+	 * @throws IllegalArgumentException if block at given location does not react on a signal.
+	 */
+	@NotNull RedstoneGraph compile(@NotNull Location start){
+		final Buffer seed = new Buffer();
+		if (!seed.reach(start.getBlockX(), start.getBlockY(), start.getBlockZ(), true)) throw new IllegalArgumentException("Block at " + start + " does not react on a signal.");
+
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new BranchTask(seed.pending));
+		} finally {
+			pool.shutdown();
+		}
+		return merge(BlockPos.pack(start.getBlockX(), start.getBlockY(), start.getBlockZ()));
+	}
+
+	/**
+	 * @return Returns amount of expansions done by all tasks.
+	 */
+	int getExpanded(){
+		return expansions.get();
+	}
+
+	/**
+	 * Merges all buffers into one graph. Nodes are numbered breadth first from root following edges in the order the rules
+	 * reported them, material specific edges before natural edges.
+	 */
+	private @NotNull RedstoneGraph merge(long rootPos){
+		// Index records by kind and position, values are buffer index and record index
+		final List<Buffer> all = new ArrayList<>(buffers);
+		final List<Map<Long, Long>> records = List.of(new HashMap<>(), new HashMap<>(), new HashMap<>());
+		for (int b = 0; b < all.size(); b++) {
+			final Buffer buffer = all.get(b);
+			for (int r = 0; r < buffer.recordCount; r++) {
+				records.get(buffer.recKinds[r]).put(buffer.recPositions[r], (long) b << 32 | r);
+			}
+		}
+
+		final RedstoneGraph.Builder builder = new RedstoneGraph.Builder(world.getName());
+		final Map<Long, Integer> blockNodes = new HashMap<>(), sliderNodes = new HashMap<>();
+		final List<Long> order = new ArrayList<>();	// packed position of every node in order of numbering
+
+		blockNodes.put(rootPos, builder.addNode(rootPos, nodeKind(all, records.get(OWN).get(rootPos))));
+		order.add(rootPos);
+		for (int node = 0; node < order.size(); node++) {
+			final long pos = order.get(node);
+			final boolean slider = builder.getKind(node) == RedstoneGraph.SLIDER;
+
+			for (int kind = slider ? SLIDER : OWN; kind <= (slider ? SLIDER : NATURAL); kind++) {
+				final Long ref = records.get(kind).get(pos);
+				if (ref == null) continue;
+				final Buffer buffer = all.get((int) (ref >> 32));
+				final int r = (int) (long) ref;
+
+				if (buffer.recCommands[r] != null) builder.setCommand(node, buffer.recCommands[r], buffer.recRepeating[r]);
+				for (int e = buffer.recEdgeStart[r]; e < buffer.recEdgeEnd[r]; e++) {
+					final long target = buffer.edgeTargets[e];
+					final boolean targetSlider = buffer.edgeSlider[e];
+					final Map<Long, Integer> nodes = targetSlider ? sliderNodes : blockNodes;
+
+					Integer targetNode = nodes.get(target);
+					if (targetNode == null) {
+						targetNode = builder.addNode(target, targetSlider ? RedstoneGraph.SLIDER : nodeKind(all, records.get(OWN).get(target)));
+						nodes.put(target, targetNode);
+						order.add(target);
+					}
+					builder.addEdge(node, targetNode, buffer.edgeDelays[e], buffer.edgeOps[e], buffer.edgeArgs[e],
+							buffer.edgePropagate[e], kind == NATURAL);
+				}
+			}
+		}
+		return builder.build(0);
+	}
+
+	/**
+	 * @return Returns node kind stored in given material specific expansion record.
+	 */
+	private static byte nodeKind(List<Buffer> all, Long ref){
+		if (ref == null) throw new IllegalStateException("Reached block was not expanded.");
+		return all.get((int) (ref >> 32)).recNodeKinds[(int) (long) ref];
+	}
+
+	/**
+	 * Task exploring a branch of the contraption. When too many expansions are pending, half of them is forked into a new task.
+	 */
+	private final class BranchTask extends RecursiveAction {
+
+		/**
+		 * Pending expansions, flags column contains kind of expansion.
+		 */
+		private final BlockPosQueue pending;
+
+		private BranchTask(BlockPosQueue pending) {
+			this.pending = pending;
+		}
+
+		@Override
+		protected void compute() {
+			final Buffer buffer = new Buffer(pending);
+			buffers.add(buffer);
+
+			final List<BranchTask> forked = new ArrayList<>();
+			while (!pending.isEmpty()) {
+				// Split off half of branch, so that idle threads can steal it
+				if (pending.size() > FORK_THRESHOLD) {
+					final BlockPosQueue half = new BlockPosQueue(pending.size());
+					for (int i = pending.size() / 2; i > 0; i--) {
+						half.add(pending.getX(), pending.getY(), pending.getZ(), 0, 0, pending.getFlags());
+						pending.remove();
+					}
+					final BranchTask task = new BranchTask(half);
+					task.fork();
+					forked.add(task);
+				}
+
+				final int x = pending.getX(), y = pending.getY(), z = pending.getZ();
+				final int kind = pending.getFlags();
+				pending.remove();
+				buffer.expand(x, y, z, kind);
+			}
+
+			for (BranchTask task : forked) task.join();
+		}
+	}
+
+	/**
+	 * Task local buffer recording expansions and their edges in primitive arrays.
+	 */
+	private final class Buffer implements RedstoneRules.Sink {
+
+		/**
+		 * Expansions which still have to be done.
+		 */
+		private final BlockPosQueue pending;
+
+		// Records of expansions
+
+		private int recordCount;
+		private long[] recPositions = new long[64];
+		private int[] recKinds = new int[64], recEdgeStart = new int[64], recEdgeEnd = new int[64];
+		private byte[] recNodeKinds = new byte[64];
+		private String[] recCommands = new String[64];
+		private boolean[] recRepeating = new boolean[64];
+
+		// Edges of records
+
+		private int edgeCount;
+		private long[] edgeTargets = new long[256];
+		private boolean[] edgeSlider = new boolean[256], edgePropagate = new boolean[256];
+		private int[] edgeDelays = new int[256], edgeOps = new int[256], edgeArgs = new int[256];
+
+		private Buffer() {
+			this(new BlockPosQueue());
+		}
+
+		private Buffer(BlockPosQueue pending) {
+			this.pending = pending;
+		}
+
+		/**
+		 * Expands given position and records what the rules report.
+		 */
+		private void expand(int x, int y, int z, int kind){
+			final Material curMat = kind == SLIDER ? Material.AIR : source.getType(x, y, z);
+			beginRecord(BlockPos.pack(x, y, z), kind, RedstoneRules.getNodeKind(curMat));
+			switch (kind) {
+				case OWN -> rules.expand(x, y, z, curMat, this);
+				case NATURAL -> rules.expandNatural(x, y, z, this);
+				case SLIDER -> RedstoneRules.expandSurrounding(x, y, z, this);
+			}
+			recEdgeEnd[recordCount - 1] = edgeCount;
+
+			// Stop compiling if it grows too large
+			if ((expansions.incrementAndGet() & 1023) == 0 && memoryQuota > 0 && (long) claimed.get(OWN).size() * EXPANSION_BYTES > memoryQuota)
+				throw new IllegalStateException("Scan exceeds heap quota of " + memoryQuota / (1024 * 1024) + "MB.");
+		}
+
+		/**
+		 * Claims expansions of given position if block reacts on the signal and adds them to pending expansions.
+		 * @return Returns true if block reacts on the signal.
+		 */
+		private boolean reach(int x, int y, int z, boolean propagate){
+			// Non propagating signals only reach redstone components, so sections without them are skipped
+			if (!propagate && !source.sectionContains(x, y, z)) return false;
+			final Material mat = source.getType(x, y, z);
+			if (!RedstoneRules.reactsOn(mat, propagate)) return false;
+
+			final long pos = BlockPos.pack(x, y, z);
+			if (claimed.get(OWN).add(pos)) {
+				pending.add(x, y, z, 0, 0, OWN);
+
+				// Neighbouring chunks are read when the block is expanded, so they are loaded while it is pending
+				source.prefetchAround(x, z, RedstoneRules.REACH);
+			}
+			if (propagate && RedstoneRules.isNatural(mat) && claimed.get(NATURAL).add(pos)) pending.add(x, y, z, 0, 0, NATURAL);
+			return true;
+		}
+
+		@Override
+		public void signal(int x, int y, int z, int delay, int lengthOp, int lengthArg, boolean propagate) {
+			if (reach(x, y, z, propagate)) {
+				addEdge(BlockPos.pack(x, y, z), false, delay, lengthOp, lengthArg, propagate);
+			}
+		}
+
+		@Override
+		public void slider(int x, int y, int z) {
+			final long pos = BlockPos.pack(x, y, z);
+			if (claimed.get(SLIDER).add(pos)) pending.add(x, y, z, 0, 0, SLIDER);
+			addEdge(pos, true, 1, RedstoneRules.KEEP, 0, false);
+		}
+
+		@Override
+		public void sound(@NotNull String command, boolean repeating) {
+			recCommands[recordCount - 1] = command;
+			recRepeating[recordCount - 1] = repeating;
+		}
+
+		private void beginRecord(long pos, int kind, byte nodeKind){
+			if (recordCount == recPositions.length) {
+				final int capacity = recordCount << 1;
+				recPositions = Arrays.copyOf(recPositions, capacity);
+				recKinds = Arrays.copyOf(recKinds, capacity);
+				recEdgeStart = Arrays.copyOf(recEdgeStart, capacity);
+				recEdgeEnd = Arrays.copyOf(recEdgeEnd, capacity);
+				recNodeKinds = Arrays.copyOf(recNodeKinds, capacity);
+				recCommands = Arrays.copyOf(recCommands, capacity);
+				recRepeating = Arrays.copyOf(recRepeating, capacity);
+			}
+			recPositions[recordCount] = pos;
+			recKinds[recordCount] = kind;
+			recNodeKinds[recordCount] = nodeKind;
+			recEdgeStart[recordCount] = edgeCount;
+			recEdgeEnd[recordCount] = edgeCount;
+			recordCount++;
+		}
+
+		private void addEdge(long target, boolean slider, int delay, int lengthOp, int lengthArg, boolean propagate){
+			if (edgeCount == edgeTargets.length) {
+				final int capacity = edgeCount << 1;
+				edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+				edgeSlider = Arrays.copyOf(edgeSlider, capacity);
+				edgePropagate = Arrays.copyOf(edgePropagate, capacity);
+				edgeDelays = Arrays.copyOf(edgeDelays, capacity);
+				edgeOps = Arrays.copyOf(edgeOps, capacity);
+				edgeArgs = Arrays.copyOf(edgeArgs, capacity);
+			}
+			edgeTargets[edgeCount] = target;
+			edgeSlider[edgeCount] = slider;
+			edgePropagate[edgeCount] = propagate;
+			edgeDelays[edgeCount] = delay;
+			edgeOps[edgeCount] = lengthOp;
+			edgeArgs[edgeCount] = lengthArg;
+			edgeCount++;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.util.CommandUtil;
+import com.github.militalex.util.PlaySoundCommand;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Command of a command block classified and parsed the way {@link RedstoneRules} need it. Music contraptions contain thousands
+ * of command blocks with the same commands, so every command is parsed once and cached. Further command blocks with the same
+ * command cost a hash lookup. Rearranged playsound commands are interned as well, so that equal sounds share one string in the graph.
+ * <br>
+ * The cache is bounded and thread safe. When it is full it is cleared, because a contraption usually reuses few commands.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class ParsedCommand {
+
+	// Kinds of commands
+
+	/**
+	 * Command does nothing the rules are interested in.
+	 */
+	static final int OTHER = 0;
+
+	/**
+	 * Command is part of a music slider and places a block, see {@link RedstoneRules.Sink#slider(int, int, int)}.
+	 */
+	static final int SLIDER = 1;
+
+	/**
+	 * Command plays a sound, see {@link RedstoneRules.Sink#sound(String, boolean)}.
+	 */
+	static final int SOUND = 2;
+
+	/**
+	 * Maximum amount of cached commands.
+	 */
+	private static final int CACHE_SIZE = 4096;
+
+	/**
+	 * Parsed commands by command.
+	 */
+	private static final Map<String, ParsedCommand> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Rearranged playsound commands, so that equal sounds share one instance.
+	 */
+	private static final Map<String, String> INTERNED_SOUNDS = new ConcurrentHashMap<>();
+
+	private static final ParsedCommand OTHER_COMMAND = new ParsedCommand(OTHER, 0, 0, 0, 0, null);
+
+	/**
+	 * Kind of command.
+	 */
+	private final int kind;
+
+	/**
+	 * Coordinates of slider target. Relative coordinates are offsets to the command block.
+	 */
+	private final int sliderX, sliderY, sliderZ;
+
+	/**
+	 * Bit 0, 1 and 2 define if x, y and z of slider target are relative.
+	 */
+	private final int relative;
+
+	/**
+	 * Rearranged playsound command or null if command plays no sound.
+	 */
+	private final String sound;
+
+	private ParsedCommand(int kind, int sliderX, int sliderY, int sliderZ, int relative, String sound) {
+		this.kind = kind;
+		this.sliderX = sliderX;
+		this.sliderY = sliderY;
+		this.sliderZ = sliderZ;
+		this.relative = relative;
+		this.sound = sound;
+	}
+
+	/**
+	 * @param command Command of a command block or null if it has none.
+	 * @return Returns given command parsed. Parsing is done once per command.
+	 * @throws IllegalArgumentException if command looks like a slider or playsound command but cannot be parsed.
+	 */
+	static @NotNull ParsedCommand of(@Nullable String command){
+		if (command == null) return OTHER_COMMAND;
+		final ParsedCommand cached = CACHE.get(command);
+		if (cached != null) return cached;
+
+		final ParsedCommand parsed = parse(command.startsWith("/") ? command.substring(1) : command);
+		if (CACHE.size() >= CACHE_SIZE) {
+			CACHE.clear();
+			INTERNED_SOUNDS.clear();
+		}
+		CACHE.put(command, parsed);
+		return parsed;
+	}
+
+	/**
+	 * @return Returns kind of command, one of {@link ParsedCommand#OTHER}, {@link ParsedCommand#SLIDER} and {@link ParsedCommand#SOUND}.
+	 */
+	int getKind(){
+		return kind;
+	}
+
+	/**
+	 * @return Returns x of block a slider command of a command block at given x places its block at.
+	 */
+	int getSliderX(int x){
+		return (relative & 1) != 0 ? x + sliderX : sliderX;
+	}
+
+	/**
+	 * @return Returns y of block a slider command of a command block at given y places its block at.
+	 */
+	int getSliderY(int y){
+		return (relative & 2) != 0 ? y + sliderY : sliderY;
+	}
+
+	/**
+	 * @return Returns z of block a slider command of a command block at given z places its block at.
+	 */
+	int getSliderZ(int z){
+		return (relative & 4) != 0 ? z + sliderZ : sliderZ;
+	}
+
+	/**
+	 * @return Returns playsound command rearranged to be played at every player with tag musik_play or null if command plays no sound.
+	 */
+	@Nullable String getSound(){
+		return sound;
+	}
+
+	private static @NotNull ParsedCommand parse(@NotNull String command){
+		// Linphator Music-Slider
+		if ((command.startsWith("setblock") && (command.contains("redstone_block") || command.contains("air"))) || command.contains("clone"))
+			return parseSlider(command);
+
+		// finally playsound command handler
+		if (command.contains("playsound")) {
+			final String sound = rearrangePlaySound(command);
+			return new ParsedCommand(SOUND, 0, 0, 0, 0, INTERNED_SOUNDS.computeIfAbsent(sound, s -> s));
+		}
+		return OTHER_COMMAND;
+	}
+
+	/**
+	 * @return Returns slider command parsed into the position it places its block at.
+	 */
+	private static @NotNull ParsedCommand parseSlider(@NotNull String command){
+		if ((!command.startsWith("setblock") || (!command.contains("redstone_block") && !command.contains("air"))) && !command.startsWith("clone"))
+			throw new IllegalArgumentException(command + " is not part of music slider.");
+
+		// Extract position from command
+		final Scanner scanner = new Scanner(command);
+		scanner.next();
+		if (command.startsWith("clone")) { scanner.next(); scanner.next(); scanner.next(); scanner.next(); scanner.next(); scanner.next(); }
+		final String x = scanner.next(), y = scanner.next(), z = scanner.next();
+
+		// Relative coordinates are resolved against 0, so that they are stored as offset
+		final int relative = (x.startsWith("~") ? 1 : 0) | (y.startsWith("~") ? 2 : 0) | (z.startsWith("~") ? 4 : 0);
+		return new ParsedCommand(SLIDER, CommandUtil.getCordFromTildeOrNumber(0, x), CommandUtil.getCordFromTildeOrNumber(0, y),
+				CommandUtil.getCordFromTildeOrNumber(0, z), relative, null);
+	}
+
+	/**
+	 * @return Returns given playsound command rearranged, so that it is played at every player with tag musik_play.
+	 */
+	private static @NotNull String rearrangePlaySound(@NotNull String command){
+		// Tokenize without prefixed execute stuff
+		final PlaySoundCommand playsound = PlaySoundCommand.parse(command);
+		if (!playsound.has(PlaySoundCommand.Z))
+			throw new IllegalArgumentException(command + " cannot be a playsound command.");
+
+		// Playsound rearrangement
+		final StringBuilder modCmdBuilder = new StringBuilder("as @a[tag=musik_play] at @s run playsound ");
+
+		// Extract sound effect
+		int soundStart = playsound.getStart(PlaySoundCommand.SOUND);
+		if (command.startsWith("minecraft:", soundStart)) soundStart += "minecraft:".length();
+		final String soundEffect = command.substring(soundStart, playsound.getEnd(PlaySoundCommand.SOUND));
+		modCmdBuilder.append(soundEffect).append(" ");
+
+		// Set sound fader to record or voice
+		if (SoundClassifier.getInstance().isRecord(soundEffect)) modCmdBuilder.append("record ");
+		else modCmdBuilder.append("voice ");
+
+		// Set executor to @s and location to 3x ~
+		modCmdBuilder.append("@s ~ ~ ~ ");
+
+		// Keep volume and pith if information is given
+		for (int arg = PlaySoundCommand.VOLUME; arg <= PlaySoundCommand.PITCH && playsound.has(arg); arg++){
+			modCmdBuilder.append(command, playsound.getStart(arg), playsound.getEnd(arg)).append(" ");
+		}
+
+		return modCmdBuilder.toString();
+	}
+}
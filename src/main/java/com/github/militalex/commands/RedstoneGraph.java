@@ -0,0 +1,587 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.util.world.BlockPosFrontier;
+import com.github.militalex.util.world.BlockPosHeap;
+import com.github.militalex.util.world.BlockPosQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Compiled form of a music contraption. Nodes are blocks reacting on a signal (natural blocks, wires, repeaters, comparators
+ * and command blocks) and virtual nodes for the targets of music sliders. Edges define where a signal goes, after which delay
+ * and how its length changes. Everything is stored in primitive arrays, edges in compressed sparse row form.
+ * <br>
+ * A graph is compiled once by {@link MusicScanTickable} and saved to disk, so that the timeline of the contraption can be
+ * evaluated again without reading the world. Graphs are immutable and therefore thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class RedstoneGraph {
+
+	/**
+	 * Identifies graph files and their format version.
+	 */
+	private static final int MAGIC = 0x43424752, VERSION = 1;
+
+	// Node kinds
+
+	public static final byte BLOCK = 0, WIRE = 1, REPEATER = 2, COMPARATOR = 3, COMMAND = 4;
+
+	/**
+	 * Virtual node of a position a music slider places a block at. A signal reaching it is passed on to its edges immediately.
+	 */
+	public static final byte SLIDER = 5;
+
+	// Node flags
+
+	/**
+	 * Command of node is played as long as the signal lasts.
+	 */
+	private static final byte REPEATING = 1;
+
+	// Edge flags, bits 2 and 3 contain the length operation of RedstoneRules
+
+	/**
+	 * Target is reached by a propagating signal.
+	 */
+	private static final byte PROPAGATE = 1;
+
+	/**
+	 * Edge is only followed if node is reached by a propagating signal.
+	 */
+	private static final byte REQUIRES_PROPAGATE = 2;
+
+	// Evaluation states
+
+	private static final int REACHED = 1, PROPAGATING = 2, DONE = 4;
+
+	/**
+	 * Defines in which order reached nodes are processed when the graph is evaluated.
+	 */
+	public enum Propagation {
+		/**
+		 * Nodes are processed layer by layer in the order they are reached. A node reached first by a slow path is
+		 * processed before a faster path arrives.
+		 */
+		LAYERED,
+		/**
+		 * Nodes are processed ordered by score, so every node is processed exactly once at its earliest activation.
+		 * Output does not depend on the order paths are explored in.
+		 */
+		EARLIEST
+	}
+
+	/**
+	 * Receives every node when it is processed during evaluation.
+	 */
+	@FunctionalInterface
+	public interface Visitor {
+		void visit(int node, int score, int length);
+	}
+
+	/**
+	 * Statistics of an evaluation.
+	 */
+	public record Stats(int processed, int dropped, int peakFrontierSize) {}
+
+	/**
+	 * Name of world the contraption was built in.
+	 */
+	private final String world;
+
+	/**
+	 * Node signal starts at with score 0 and length 1.
+	 */
+	private final int root;
+
+	// Nodes
+
+	private final long[] positions;
+	private final byte[] kinds, nodeFlags;
+
+	/**
+	 * Index of command in {@link RedstoneGraph#commands} or -1.
+	 */
+	private final int[] commandIndices;
+	private final String[] commands;
+
+	// Edges of node i are at indices edgeStart[i] until edgeStart[i + 1]
+
+	private final int[] edgeStart, edgeTargets, edgeDelays;
+	private final byte[] edgeFlags, edgeArgs;
+
+	private RedstoneGraph(String world, int root, long[] positions, byte[] kinds, byte[] nodeFlags, int[] commandIndices,
+						  String[] commands, int[] edgeStart, int[] edgeTargets, int[] edgeDelays, byte[] edgeFlags, byte[] edgeArgs) {
+		this.world = world;
+		this.root = root;
+		this.positions = positions;
+		this.kinds = kinds;
+		this.nodeFlags = nodeFlags;
+		this.commandIndices = commandIndices;
+		this.commands = commands;
+		this.edgeStart = edgeStart;
+		this.edgeTargets = edgeTargets;
+		this.edgeDelays = edgeDelays;
+		this.edgeFlags = edgeFlags;
+		this.edgeArgs = edgeArgs;
+	}
+
+	public @NotNull String getWorld(){
+		return world;
+	}
+
+	/**
+	 * @return Returns node the signal starts at.
+	 */
+	public int getRoot(){
+		return root;
+	}
+
+	public int getNodeCount(){
+		return kinds.length;
+	}
+
+	public int getEdgeCount(){
+		return edgeTargets.length;
+	}
+
+	/**
+	 * @return Returns packed position of given node, see {@link com.github.militalex.util.world.BlockPos}.
+	 */
+	public long getPosition(int node){
+		return positions[node];
+	}
+
+	public byte getKind(int node){
+		return kinds[node];
+	}
+
+	/**
+	 * @return Returns rearranged playsound command of given node or null.
+	 */
+	public @Nullable String getCommand(int node){
+		return commandIndices[node] == -1 ? null : commands[commandIndices[node]];
+	}
+
+	public boolean isRepeating(int node){
+		return (nodeFlags[node] & REPEATING) != 0;
+	}
+
+	// Evaluation
+
+	/**
+	 * Runs a signal of length 1 from root through the graph and passes every node to given visitor when it is processed.
+	 * Every node is processed at most once. Slider nodes are never processed, signals reaching them are passed on directly.
+	 * @param propagation Defines in which order reached nodes are processed.
+	 * @param visitor Receives processed nodes with the score and the length of the signal they are reached with.
+	 * @return Returns statistics of evaluation.
+	 */
+	public @NotNull Stats evaluate(@NotNull Propagation propagation, @NotNull Visitor visitor){
+		final Evaluation evaluation = startEvaluation(propagation, visitor);
+		while (!evaluation.isDone()) evaluation.step();
+		return evaluation.getStats();
+	}
+
+	/**
+	 * Starts an evaluation like {@link RedstoneGraph#evaluate(Propagation, Visitor)}, which is done step by step, so that it
+	 * can be spread over multiple ticks.
+	 * @param propagation Defines in which order reached nodes are processed.
+	 * @param visitor Receives processed nodes with the score and the length of the signal they are reached with.
+	 * @return Returns evaluation with the signal at root.
+	 */
+	public @NotNull Evaluation startEvaluation(@NotNull Propagation propagation, @NotNull Visitor visitor){
+		final Evaluation evaluation = new Evaluation(propagation, visitor);
+		evaluation.reach(root, 0, 1, true);
+		return evaluation;
+	}
+
+	/**
+	 * State of a single evaluation. This class is not thread safe.
+	 */
+	public final class Evaluation {
+		private final Propagation propagation;
+		private final Visitor visitor;
+
+		/**
+		 * Frontier of nodes waiting to be processed. Node index is stored as x coordinate.
+		 */
+		private final BlockPosFrontier frontier;
+
+		/**
+		 * Earliest score, longest length and state every node is reached with.
+		 */
+		private final int[] scores, lengths, states;
+
+		private int processed, dropped, peakFrontierSize;
+
+		private Evaluation(Propagation propagation, Visitor visitor) {
+			this.propagation = propagation;
+			this.visitor = visitor;
+			this.frontier = propagation == Propagation.EARLIEST ? new BlockPosHeap(1024) : new BlockPosQueue(1024);
+			this.scores = new int[kinds.length];
+			this.lengths = new int[kinds.length];
+			this.states = new int[kinds.length];
+		}
+
+		/**
+		 * @return Returns true if every reached node is processed.
+		 */
+		public boolean isDone(){
+			return frontier.isEmpty();
+		}
+
+		/**
+		 * Takes next entry of frontier and processes its node, unless the entry is outdated.
+		 */
+		public void step(){
+			final int node = frontier.getX();
+			final int score = frontier.getScore();
+			final int length = frontier.getLength();
+			final boolean propagate = frontier.getFlags() != 0;
+			frontier.remove();
+
+			// Skip entries which were replaced by an earlier arrival and nodes which are already processed
+			final int state = states[node];
+			if ((state & DONE) != 0 || scores[node] != score || lengths[node] != length
+					|| ((state & PROPAGATING) != 0) != propagate) return;
+			states[node] = state | DONE;
+			processed++;
+
+			visitor.visit(node, score, length);
+			follow(node, score, length, propagate);
+		}
+
+		/**
+		 * @return Returns statistics of evaluation so far.
+		 */
+		public @NotNull Stats getStats(){
+			return new Stats(processed, dropped, peakFrontierSize);
+		}
+
+		/**
+		 * Follows all edges of given node, which is reached by given signal.
+		 */
+		private void follow(int node, int score, int length, boolean propagate){
+			for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+				final int flags = edgeFlags[e];
+				if ((flags & REQUIRES_PROPAGATE) != 0 && !propagate) continue;
+
+				final int target = edgeTargets[e];
+				final int newScore = score + edgeDelays[e];
+				final int newLength = switch (flags >> 2) {
+					case RedstoneRules.SET -> edgeArgs[e];
+					case RedstoneRules.STRETCH -> Math.max(length, edgeArgs[e]);
+					default -> length;
+				};
+				final boolean newPropagate = (flags & PROPAGATE) != 0;
+
+				// Sliders are passed directly
+				if (kinds[target] == SLIDER) follow(target, newScore, newLength, newPropagate);
+				else reach(target, newScore, newLength, newPropagate);
+			}
+		}
+
+		/**
+		 * Adds given node to frontier, if it is not reached by a better signal before.
+		 */
+		private void reach(int node, int score, int length, boolean propagate){
+			final int state = states[node];
+			if ((state & REACHED) != 0 && !isEarlierArrival(node, score, length, propagate)) {
+				dropped++;
+				return;
+			}
+
+			scores[node] = score;
+			lengths[node] = length;
+			states[node] = REACHED | (propagate ? PROPAGATING : 0);
+			frontier.add(node, 0, 0, score, length, propagate ? 1 : 0);
+			if (frontier.size() > peakFrontierSize) peakFrontierSize = frontier.size();
+		}
+
+		/**
+		 * @return Returns true if the given arrival replaces the arrival stored for given node.
+		 * This is the case when the node is not processed yet and the new arrival is at least as early, at least as long and
+		 * at least as propagating, but not equal. With {@link Propagation#EARLIEST} an earlier arrival always replaces a later one
+		 * and a longer or propagating signal only decides between arrivals with equal score.
+		 */
+		private boolean isEarlierArrival(int node, int score, int length, boolean propagate){
+			final int state = states[node];
+			if ((state & DONE) != 0) return false;
+
+			final int oldScore = scores[node];
+			final int oldLength = lengths[node];
+			final boolean oldPropagate = (state & PROPAGATING) != 0;
+			if (propagation == Propagation.EARLIEST) {
+				if (score != oldScore) return score < oldScore;
+				if (length != oldLength) return length > oldLength;
+				return propagate && !oldPropagate;
+			}
+			if (score > oldScore || length < oldLength || (oldPropagate && !propagate)) return false;
+			return score != oldScore || length != oldLength || propagate != oldPropagate;
+		}
+	}
+
+	// Persistence
+
+	/**
+	 * Saves graph into given file. Existing file is replaced.
+	 * @throws IOException Throws an IOException if an I/O error occurs when writing.
+	 */
+	public void save(@NotNull Path file) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(world);
+			out.writeInt(root);
+
+			out.writeInt(kinds.length);
+			for (long position : positions) out.writeLong(position);
+			out.write(kinds);
+			out.write(nodeFlags);
+			for (int index : commandIndices) out.writeInt(index);
+
+			out.writeInt(commands.length);
+			for (String command : commands) out.writeUTF(command);
+
+			out.writeInt(edgeTargets.length);
+			for (int start : edgeStart) out.writeInt(start);
+			for (int target : edgeTargets) out.writeInt(target);
+			for (int delay : edgeDelays) out.writeInt(delay);
+			out.write(edgeFlags);
+			out.write(edgeArgs);
+		}
+	}
+
+	/**
+	 * Loads graph from given file.
+	 * @throws IOException Throws an IOException if an I/O error occurs when reading or file does not contain a graph.
+	 */
+	public static @NotNull RedstoneGraph load(@NotNull Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) throw new IOException(file + " is not a redstone graph.");
+			final int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported version " + version + " of redstone graph " + file + ".");
+			final String world = in.readUTF();
+			final int root = in.readInt();
+
+			final int nodeCount = in.readInt();
+			final long[] positions = new long[nodeCount];
+			for (int i = 0; i < nodeCount; i++) positions[i] = in.readLong();
+			final byte[] kinds = new byte[nodeCount];
+			in.readFully(kinds);
+			final byte[] nodeFlags = new byte[nodeCount];
+			in.readFully(nodeFlags);
+			final int[] commandIndices = readInts(in, nodeCount);
+
+			final String[] commands = new String[in.readInt()];
+			for (int i = 0; i < commands.length; i++) commands[i] = in.readUTF();
+
+			final int edgeCount = in.readInt();
+			final int[] edgeStart = readInts(in, nodeCount + 1);
+			final int[] edgeTargets = readInts(in, edgeCount);
+			final int[] edgeDelays = readInts(in, edgeCount);
+			final byte[] edgeFlags = new byte[edgeCount];
+			in.readFully(edgeFlags);
+			final byte[] edgeArgs = new byte[edgeCount];
+			in.readFully(edgeArgs);
+
+			return new RedstoneGraph(world, root, positions, kinds, nodeFlags, commandIndices, commands,
+					edgeStart, edgeTargets, edgeDelays, edgeFlags, edgeArgs);
+		}
+	}
+
+	/**
+	 * @return Returns a builder containing nodes and edges of this graph, building it again results in an equal graph.
+	 */
+	public @NotNull Builder toBuilder(){
+		final Builder builder = new Builder(world);
+		for (int node = 0; node < kinds.length; node++) {
+			builder.addNode(positions[node], kinds[node]);
+			builder.nodeFlags[node] = nodeFlags[node];
+			builder.commandIndices[node] = commandIndices[node];
+		}
+		builder.commands = Arrays.copyOf(commands, Math.max(16, commands.length));
+		builder.commandCount = commands.length;
+		for (int node = 0; node < kinds.length; node++) {
+			for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+				builder.addEdge(node, edgeTargets[e], edgeDelays[e], edgeFlags[e] >> 2, edgeArgs[e],
+						(edgeFlags[e] & PROPAGATE) != 0, (edgeFlags[e] & REQUIRES_PROPAGATE) != 0);
+			}
+		}
+		return builder;
+	}
+
+	private static int[] readInts(DataInputStream in, int amount) throws IOException {
+		final int[] ints = new int[amount];
+		for (int i = 0; i < amount; i++) ints[i] = in.readInt();
+		return ints;
+	}
+
+	/**
+	 * Collects nodes and edges in any order and builds a graph from them. This class is not thread safe.
+	 */
+	public static final class Builder {
+		private final String world;
+
+		private int nodeCount;
+		private long[] positions = new long[256];
+		private byte[] kinds = new byte[256], nodeFlags = new byte[256];
+		private int[] commandIndices = new int[256];
+		private String[] commands = new String[16];
+		private int commandCount;
+
+		private int edgeCount;
+		private int[] edgeSources = new int[1024], edgeTargets = new int[1024], edgeDelays = new int[1024];
+		private byte[] edgeFlags = new byte[1024], edgeArgs = new byte[1024];
+
+		public Builder(@NotNull String world) {
+			this.world = world;
+		}
+
+		/**
+		 * Adds a new node.
+		 * @return Returns index of added node.
+		 */
+		public int addNode(long position, byte kind){
+			if (nodeCount == kinds.length) {
+				final int capacity = nodeCount << 1;
+				positions = Arrays.copyOf(positions, capacity);
+				kinds = Arrays.copyOf(kinds, capacity);
+				nodeFlags = Arrays.copyOf(nodeFlags, capacity);
+				commandIndices = Arrays.copyOf(commandIndices, capacity);
+			}
+			positions[nodeCount] = position;
+			kinds[nodeCount] = kind;
+			commandIndices[nodeCount] = -1;
+			return nodeCount++;
+		}
+
+		/**
+		 * Sets rearranged playsound command of given node.
+		 */
+		public void setCommand(int node, @NotNull String command, boolean repeating){
+			if (commandCount == commands.length) commands = Arrays.copyOf(commands, commandCount << 1);
+			commands[commandCount] = command;
+			commandIndices[node] = commandCount++;
+			if (repeating) nodeFlags[node] |= REPEATING;
+		}
+
+		/**
+		 * Adds a new edge.
+		 * @param lengthOp Operation applied to the signal length, one of {@link RedstoneRules#KEEP}, {@link RedstoneRules#SET} and {@link RedstoneRules#STRETCH}.
+		 * @param lengthArg Argument of lengthOp.
+		 * @param propagate Defines if target is reached by a propagating signal.
+		 * @param requiresPropagate Defines if edge is only followed when source is reached by a propagating signal.
+		 */
+		public void addEdge(int source, int target, int delay, int lengthOp, int lengthArg, boolean propagate, boolean requiresPropagate){
+			if (lengthArg < 0 || lengthArg > Byte.MAX_VALUE) throw new IllegalArgumentException("Length argument " + lengthArg + " is out of range.");
+			if (edgeCount == edgeTargets.length) {
+				final int capacity = edgeCount << 1;
+				edgeSources = Arrays.copyOf(edgeSources, capacity);
+				edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+				edgeDelays = Arrays.copyOf(edgeDelays, capacity);
+				edgeFlags = Arrays.copyOf(edgeFlags, capacity);
+				edgeArgs = Arrays.copyOf(edgeArgs, capacity);
+			}
+			edgeSources[edgeCount] = source;
+			edgeTargets[edgeCount] = target;
+			edgeDelays[edgeCount] = delay;
+			edgeFlags[edgeCount] = (byte) ((propagate ? PROPAGATE : 0) | (requiresPropagate ? REQUIRES_PROPAGATE : 0) | lengthOp << 2);
+			edgeArgs[edgeCount] = (byte) lengthArg;
+			edgeCount++;
+		}
+
+		public int getNodeCount(){
+			return nodeCount;
+		}
+
+		public byte getKind(int node){
+			return kinds[node];
+		}
+
+		public int getEdgeCount(){
+			return edgeCount;
+		}
+
+		/**
+		 * Writes all collected nodes and edges into given output.
+		 */
+		public void write(@NotNull DataOutput out) throws IOException {
+			out.writeUTF(world);
+			out.writeInt(nodeCount);
+			for (int i = 0; i < nodeCount; i++) {
+				out.writeLong(positions[i]);
+				out.writeByte(kinds[i]);
+				out.writeByte(nodeFlags[i]);
+				out.writeInt(commandIndices[i]);
+			}
+			out.writeInt(commandCount);
+			for (int i = 0; i < commandCount; i++) out.writeUTF(commands[i]);
+			out.writeInt(edgeCount);
+			for (int e = 0; e < edgeCount; e++) {
+				out.writeInt(edgeSources[e]);
+				out.writeInt(edgeTargets[e]);
+				out.writeInt(edgeDelays[e]);
+				out.writeByte(edgeFlags[e]);
+				out.writeByte(edgeArgs[e]);
+			}
+		}
+
+		/**
+		 * Reads a builder written by {@link Builder#write(DataOutput)}.
+		 */
+		public static @NotNull Builder read(@NotNull DataInput in) throws IOException {
+			final Builder builder = new Builder(in.readUTF());
+			for (int n = in.readInt(); n > 0; n--) {
+				final int node = builder.addNode(in.readLong(), in.readByte());
+				builder.nodeFlags[node] = in.readByte();
+				builder.commandIndices[node] = in.readInt();
+			}
+			builder.commandCount = in.readInt();
+			builder.commands = new String[Math.max(16, builder.commandCount)];
+			for (int i = 0; i < builder.commandCount; i++) builder.commands[i] = in.readUTF();
+			for (int n = in.readInt(); n > 0; n--) {
+				final int source = in.readInt(), target = in.readInt(), delay = in.readInt();
+				final byte flags = in.readByte(), arg = in.readByte();
+				builder.addEdge(source, target, delay, flags >> 2, arg, (flags & PROPAGATE) != 0, (flags & REQUIRES_PROPAGATE) != 0);
+			}
+			return builder;
+		}
+
+		/**
+		 * Builds graph. Edges of a node keep the order they were added in.
+		 * @param root Node signal starts at.
+		 */
+		public @NotNull RedstoneGraph build(int root){
+			if (root < 0 || root >= nodeCount) throw new IllegalArgumentException("Root " + root + " is not a node.");
+
+			// Count edges per node and calculate start indices
+			final int[] start = new int[nodeCount + 1];
+			for (int e = 0; e < edgeCount; e++) start[edgeSources[e] + 1]++;
+			for (int i = 0; i < nodeCount; i++) start[i + 1] += start[i];
+
+			// Sort edges by source
+			final int[] next = Arrays.copyOf(start, nodeCount);
+			final int[] targets = new int[edgeCount], delays = new int[edgeCount];
+			final byte[] flags = new byte[edgeCount], args = new byte[edgeCount];
+			for (int e = 0; e < edgeCount; e++) {
+				final int i = next[edgeSources[e]]++;
+				targets[i] = edgeTargets[e];
+				delays[i] = edgeDelays[e];
+				flags[i] = edgeFlags[e];
+				args[i] = edgeArgs[e];
+			}
+
+			return new RedstoneGraph(world, root, Arrays.copyOf(positions, nodeCount), Arrays.copyOf(kinds, nodeCount),
+					Arrays.copyOf(nodeFlags, nodeCount), Arrays.copyOf(commandIndices, nodeCount), Arrays.copyOf(commands, commandCount),
+					start, targets, delays, flags, args);
+		}
+	}
+}
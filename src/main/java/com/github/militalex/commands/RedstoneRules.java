@@ -0,0 +1,259 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.main.CommandBlockHelper;
+import com.github.militalex.util.world.BlockPos;
+import com.github.militalex.util.world.BlockSource;
+import com.github.militalex.util.world.RedstoneState;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * This class contains the rules how a redstone signal runs through a music contraption. The rules only read blocks from
+ * a {@link BlockSource} and report where a signal goes to a {@link Sink}, so that they do not depend on the order blocks
+ * are reached in or on what is done with the result. They are used by {@link MusicScanTickable} to compile a {@link RedstoneGraph}.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class RedstoneRules {
+
+	/**
+	 * Materials of redstone components which react on a non propagating signal or change how a signal runs. Chunk sections
+	 * without them are skipped when looking for blocks reached by a non propagating signal, see {@link BlockSource#sectionContains(int, int, int)}.
+	 */
+	static final Set<Material> COMPONENTS = EnumSet.of(Material.REDSTONE_WIRE, Material.REPEATER, Material.COMPARATOR,
+			Material.COMMAND_BLOCK, Material.REPEATING_COMMAND_BLOCK, Material.CHAIN_COMMAND_BLOCK, Material.PISTON,
+			Material.STICKY_PISTON, Material.NOTE_BLOCK);
+
+	/**
+	 * Maximum horizontal distance of blocks which are read or reached when a block is expanded. Targets of music sliders are not included.
+	 */
+	static final int REACH = 1;
+
+	// Operations applied to the signal length when a signal runs along an edge
+
+	/**
+	 * Signal length does not change.
+	 */
+	static final int KEEP = 0;
+
+	/**
+	 * Signal length is set to the argument of the edge.
+	 */
+	static final int SET = 1;
+
+	/**
+	 * Signal length is stretched to at least the argument of the edge.
+	 */
+	static final int STRETCH = 2;
+
+	/**
+	 * Receives where a signal goes from the block which is currently expanded.
+	 */
+	interface Sink {
+
+		/**
+		 * Signal reaches block at given position.
+		 * @param delay Delay in game ticks until target is reached.
+		 * @param lengthOp Operation applied to the signal length, one of {@link RedstoneRules#KEEP}, {@link RedstoneRules#SET} and {@link RedstoneRules#STRETCH}.
+		 * @param lengthArg Argument of lengthOp.
+		 * @param propagate Defines if target, when it is a natural block, should propagate the signal further.
+		 */
+		void signal(int x, int y, int z, int delay, int lengthOp, int lengthArg, boolean propagate);
+
+		/**
+		 * Command block is part of a music slider and places a block at given position, which powers its surrounding one tick later.
+		 */
+		void slider(int x, int y, int z);
+
+		/**
+		 * Command block plays a sound.
+		 * @param command Playsound command rearranged to be played at every player with tag musik_play.
+		 * @param repeating Defines if command block is repeating, so the sound is played as long as the signal lasts.
+		 */
+		void sound(@NotNull String command, boolean repeating);
+	}
+
+	/**
+	 * Source blocks are read from.
+	 */
+	private final BlockSource source;
+
+	RedstoneRules(@NotNull BlockSource source) {
+		this.source = source;
+		source.indexSections(COMPONENTS);
+	}
+
+	/**
+	 * @return Returns true if a block of given material does something when it is reached by a signal.
+	 * Natural blocks only react if the signal propagates.
+	 */
+	static boolean reactsOn(@NotNull Material mat, boolean propagate){
+		if (mat.isAir()) return false;
+		if (propagate && isNatural(mat)) return true;
+		return mat == Material.REDSTONE_WIRE || mat == Material.REPEATER || mat == Material.COMPARATOR || isCommandBlock(mat);
+	}
+
+	/**
+	 * @return Returns true if blocks of given material propagate a signal like natural blocks do.
+	 */
+	static boolean isNatural(@NotNull Material mat){
+		return mat.isBlock() && mat.isOccluding();
+	}
+
+	static boolean isCommandBlock(@NotNull Material mat){
+		return mat == Material.COMMAND_BLOCK || mat == Material.REPEATING_COMMAND_BLOCK || mat == Material.CHAIN_COMMAND_BLOCK;
+	}
+
+	/**
+	 * @return Returns kind of {@link RedstoneGraph} node of given material.
+	 */
+	static byte getNodeKind(@NotNull Material mat){
+		if (mat == Material.REDSTONE_WIRE) return RedstoneGraph.WIRE;
+		if (mat == Material.REPEATER) return RedstoneGraph.REPEATER;
+		if (mat == Material.COMPARATOR) return RedstoneGraph.COMPARATOR;
+		if (isCommandBlock(mat)) return RedstoneGraph.COMMAND;
+		return RedstoneGraph.BLOCK;
+	}
+
+	/**
+	 * Reports where a propagating signal goes from given natural block.
+	 */
+	void expandNatural(int x, int y, int z, @NotNull Sink sink){
+		final Material curMat = source.getType(x, y, z);
+		if (!curMat.isBlock() || !curMat.isSolid())
+			throw new IllegalArgumentException("Only natural solid redstone electrified " +
+					"blocks are processed here, nothing else. But it was " + curMat);
+
+		// Simulate Piston signal shortener
+		int lengthOp = KEEP;
+		if (source.sectionContains(x, y - 1, z) && source.getType(x, y - 1, z) == Material.STICKY_PISTON){
+			final RedstoneState pistonState = RedstoneState.of(source.getBlockData(x, y - 1, z));
+			if (pistonState.getFacing() == BlockFace.UP) lengthOp = SET;
+		}
+
+		// Iterating only over direct block neighbors without diagonal neighbours
+		for (int i = 0; i < BlockPos.NEIGHBOUR_X.length; i++) {
+			final int nx = x + BlockPos.NEIGHBOUR_X[i], ny = y + BlockPos.NEIGHBOUR_Y[i], nz = z + BlockPos.NEIGHBOUR_Z[i];
+			if (!source.sectionContains(nx, ny, nz)) continue;
+
+			// Chain cmd blocks are disabled because they can only triggerd by commandblocks
+			if (source.getType(nx, ny, nz) != Material.CHAIN_COMMAND_BLOCK) {
+				sink.signal(nx, ny, nz, 0, lengthOp, 1, false);
+			}
+		}
+	}
+
+	/**
+	 * Reports where a signal goes from given block depending on its material. Natural block behaviour is not included,
+	 * see {@link RedstoneRules#expandNatural(int, int, int, Sink)}.
+	 */
+	void expand(int x, int y, int z, @NotNull Material curMat, @NotNull Sink sink){
+		// Redstone behaviour
+		if (curMat == Material.REDSTONE_WIRE) expandRedstoneWire(x, y, z, sink);
+		// Redstone repeater behaviour
+		else if (curMat == Material.REPEATER) expandRepeater(x, y, z, sink);
+		// Redstone comparator behaviour is not supported
+		else if (curMat == Material.COMPARATOR) CommandBlockHelper.LOGGER.log(Level.WARNING, "Comparator are not allowed!");
+		// Command block behaviour
+		else if (isCommandBlock(curMat)) {
+			// Command is parsed once for all command blocks with the same command
+			final ParsedCommand command = ParsedCommand.of(source.getCommand(x, y, z));
+
+			// Process commandblock in general
+			expandCommandblock(x, y, z, sink);
+
+			// Linphator Music-Slider
+			if (command.getKind() == ParsedCommand.SLIDER) sink.slider(command.getSliderX(x), command.getSliderY(y), command.getSliderZ(z));
+
+				// finally playsound command handler
+			else if (command.getKind() == ParsedCommand.SOUND) sink.sound(command.getSound(), curMat == Material.REPEATING_COMMAND_BLOCK);
+		}
+
+		// TODO: Implement Noteblock support
+	}
+
+	/**
+	 * Reports blocks which are direct surrounded by given position, without diagonal connection.
+	 * They are reached without delay by a non propagating signal of length 1.
+	 */
+	static void expandSurrounding(int x, int y, int z, @NotNull Sink sink){
+		sink.signal(x - 1, y, z, 0, SET, 1, false);
+		sink.signal(x + 1, y, z, 0, SET, 1, false);
+		sink.signal(x, y + 1, z, 0, SET, 1, false);
+		sink.signal(x, y - 1, z, 0, SET, 1, false);
+		sink.signal(x, y, z + 1, 0, SET, 1, false);
+		sink.signal(x, y, z - 1, 0, SET, 1, false);
+	}
+
+	private void expandRedstoneWire(int x, int y, int z, @NotNull Sink sink){
+		// Get BlockStates
+		final RedstoneState redstoneState = RedstoneState.of(source.getBlockData(x, y, z));
+		final int sideMask = redstoneState.getSideMask();
+		final int upMask = redstoneState.getUpMask();
+
+		// Add Block Redstone is lying on
+		sink.signal(x, y - 1, z, 0, KEEP, 0, true);
+
+		// Add Block which Redstone would power by running into
+		for (int i = 0; i < RedstoneState.WIRE_SIDES.length; i++) {
+			// Ignore unconnected sides
+			if (((sideMask | upMask) & (1 << i)) == 0) continue;
+
+			// calculate direction step depending on side
+			final BlockFace side = RedstoneState.WIRE_SIDES[i];
+			final int addX = side.getModX();
+			final int addZ = side.getModZ();
+
+			if ((sideMask & (1 << i)) != 0){
+				// add Block Redstone is facing in
+				sink.signal(x + addX, y, z + addZ, 0, KEEP, 0, true);
+
+				// enables redstone to go downwards if not on glass or sth. like that
+				if (!source.getType(x, y, z).isOccluding()) continue;
+
+				sink.signal(x + addX, y - 1, z + addZ, 0, KEEP, 0, true);
+			}
+			else {	// Invariant: side is connected upwards
+				// enables redstone to go upwards
+				sink.signal(x + addX, y + 1, z + addZ, 0, KEEP, 0, true);
+			}
+		}
+	}
+
+	private void expandRepeater(int x, int y, int z, @NotNull Sink sink){
+		// Get BlockStates, locked repeaters do not pass signals
+		final RedstoneState repeaterState = RedstoneState.of(source.getBlockData(x, y, z));
+		if (repeaterState.isLocked()) return;
+
+		final BlockFace facing = Objects.requireNonNull(repeaterState.getFacing());
+		final int delay = repeaterState.getDelay();
+
+		// Calculate direction step depending on facing (repeater is facing towards its input)
+		final int addX = -facing.getModX();
+		final int addZ = -facing.getModZ();
+
+		// Repeater delays signal and stretches it to at least its delay
+		sink.signal(x + addX, y, z + addZ, 2 * delay, STRETCH, 2 * delay, true);
+	}
+
+	private void expandCommandblock(int x, int y, int z, @NotNull Sink sink){
+		final BlockFace facing = Objects.requireNonNull(RedstoneState.of(source.getBlockData(x, y, z)).getFacing());
+
+		// calculate direction step depending on side
+		final int addX = facing.getModX();
+		final int addY = facing.getModY();
+		final int addZ = facing.getModZ();
+
+		// Chain cmd blocks are triggered
+		if (source.getType(x + addX, y + addY, z + addZ) == Material.CHAIN_COMMAND_BLOCK){
+			sink.signal(x + addX, y + addY, z + addZ, 0, KEEP, 0, false);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.main.CommandBlockHelper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+/**
+ * Cache entry of the last scan from a start location. It refers to the saved graph of that scan together with the
+ * {@link ContraptionHash} of its region, so that scanning an unchanged contraption again can reuse the graph. The size of
+ * the graph is used to estimate the memory a new scan from the same start location needs.
+ *
+ * @param graph Name the graph is saved under, see {@link MusicScanTickable#getGraphFile(String)}.
+ * @param hash Hash of region of contraption when it was scanned.
+ * @param nodes Amount of nodes of graph.
+ * @param edges Amount of edges of graph.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+record ScanCache(@NotNull String graph, long hash, int nodes, int edges) {
+
+	/**
+	 * Identifies cache files and their format version.
+	 */
+	private static final int MAGIC = 0x43424843, VERSION = 2;
+
+	/**
+	 * @param key Identifies start location of scan.
+	 * @return Returns file the cache entry of given start location is saved in.
+	 */
+	static @NotNull Path getFile(@NotNull String key){
+		return CommandBlockHelper.PLUGIN.getDataFolder().toPath().resolve("cache").resolve(key.replaceAll("[^A-Za-z0-9_.-]", "_") + ".hash");
+	}
+
+	/**
+	 * @return Returns estimated bytes a scan of the cached contraption uses.
+	 */
+	long estimateMemory(){
+		return MusicScanTickable.estimateMemory(nodes, edges, 0);
+	}
+
+	/**
+	 * Saves entry for given start location. The file is replaced atomically.
+	 * @throws IOException Throws an IOException if an I/O error occurs when writing.
+	 */
+	void save(@NotNull String key) throws IOException {
+		final Path file = getFile(key);
+		Files.createDirectories(file.getParent());
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(graph);
+			out.writeLong(hash);
+			out.writeInt(nodes);
+			out.writeInt(edges);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return Returns entry of given start location or null if there is none or it cannot be read.
+	 */
+	static @Nullable ScanCache load(@NotNull String key){
+		final Path file = getFile(key);
+		if (!Files.exists(file)) return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+			return new ScanCache(in.readUTF(), in.readLong(), in.readInt(), in.readInt());
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot read scan cache " + file + ".", e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.main.CommandBlockHelper;
+import com.github.militalex.util.world.BlockPosMap;
+import com.github.militalex.util.world.BlockPosQueue;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+/**
+ * State of an unfinished {@link MusicScanTickable}, which is written to disk regularly, so that a scan can be resumed after
+ * the server stopped. It contains the settings of the scan, the graph compiled so far, the reached blocks and the queue.
+ * Commands are only written into the datapack after scanning, so there is nothing unflushed to store.
+ *
+ * @param name Name of datapack which will be created.
+ * @param world Name of world which is scanned.
+ * @param removal Defines what happens to scanned blocks.
+ * @param propagation Defines in which order reached blocks are processed when graph is evaluated.
+ * @param root Node of start location.
+ * @param expanded Amount of expanded blocks.
+ * @param graph Nodes and edges compiled so far.
+ * @param nodes Node and flags of every reached block.
+ * @param sliders Node of every slider target.
+ * @param queue Blocks which still have to be expanded.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+record ScanCheckpoint(@NotNull String name, @NotNull String world, @NotNull MusicScanTickable.Removal removal,
+					  @NotNull RedstoneGraph.Propagation propagation, int root, int expanded, @NotNull RedstoneGraph.Builder graph,
+					  @NotNull BlockPosMap nodes, @NotNull BlockPosMap sliders, @NotNull BlockPosQueue queue) {
+
+	/**
+	 * Identifies checkpoint files and their format version.
+	 */
+	private static final int MAGIC = 0x43424350, VERSION = 1;
+
+	/**
+	 * @return Returns file the checkpoint of the scan with given name is saved in.
+	 */
+	static @NotNull Path getFile(@NotNull String name){
+		return CommandBlockHelper.PLUGIN.getDataFolder().toPath().resolve("checkpoints").resolve(name + ".checkpoint");
+	}
+
+	/**
+	 * Saves checkpoint. The file is replaced atomically, so that a crash while saving keeps the previous checkpoint.
+	 * @throws IOException Throws an IOException if an I/O error occurs when writing.
+	 */
+	void save() throws IOException {
+		final Path file = getFile(name);
+		Files.createDirectories(file.getParent());
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(name);
+			out.writeUTF(world);
+			out.writeUTF(removal.name());
+			out.writeUTF(propagation.name());
+			out.writeInt(root);
+			out.writeInt(expanded);
+			graph.write(out);
+			nodes.write(out);
+			sliders.write(out);
+			queue.write(out);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads checkpoint of scan with given name.
+	 * @throws IOException Throws an IOException if an I/O error occurs when reading or file does not contain a checkpoint.
+	 */
+	static @NotNull ScanCheckpoint load(@NotNull String name) throws IOException {
+		final Path file = getFile(name);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) throw new IOException(file + " is not a scan checkpoint.");
+			final int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported version " + version + " of scan checkpoint " + file + ".");
+
+			final String checkpointName = in.readUTF();
+			final String world = in.readUTF();
+			final MusicScanTickable.Removal removal;
+			final RedstoneGraph.Propagation propagation;
+			try {
+				removal = MusicScanTickable.Removal.valueOf(in.readUTF());
+				propagation = RedstoneGraph.Propagation.valueOf(in.readUTF());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Scan checkpoint " + file + " is corrupted.", e);
+			}
+			final int root = in.readInt();
+			final int expanded = in.readInt();
+			final RedstoneGraph.Builder graph = RedstoneGraph.Builder.read(in);
+			final BlockPosMap nodes = new BlockPosMap(1024);
+			nodes.read(in);
+			final BlockPosMap sliders = new BlockPosMap(64);
+			sliders.read(in);
+			final BlockPosQueue queue = new BlockPosQueue(1024);
+			queue.read(in);
+
+			return new ScanCheckpoint(checkpointName, world, removal, propagation, root, expanded, graph, nodes, sliders, queue);
+		}
+	}
+
+	/**
+	 * Deletes checkpoint of scan with given name if it exists.
+	 */
+	static void delete(@NotNull String name){
+		try {
+			Files.deleteIfExists(getFile(name));
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot delete scan checkpoint of " + name + ".", e);
+		}
+	}
+}
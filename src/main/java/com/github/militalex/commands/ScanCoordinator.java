@@ -0,0 +1,223 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.main.CommandBlockHelper;
+import com.github.militalex.util.tickables.TickBudget;
+import net.md_5.bungee.api.ChatColor;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * This class coordinates all scans started by /savemusic. Scans are queued as jobs and at most a configured amount of them
+ * runs at the same time. Running scans and their block removals share one {@link TickBudget}, so together they never take
+ * more time per tick than a single scan would. Jobs whose estimated memory exceeds the heap quota are rejected and a running
+ * scan exceeding it fails. A job scanning the same contraption or writing the same datapack as a queued or running job is
+ * collapsed into that job.
+ * <br>
+ * This class should only be used on server thread.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class ScanCoordinator {
+	// Singleton Pattern
+	private static ScanCoordinator coordinator;
+
+	/**
+	 * @return Returns distinct ScanCoordinator (Singleton Pattern).
+	 */
+	static ScanCoordinator getInstance() {
+		if (coordinator == null) coordinator = new ScanCoordinator();
+		return coordinator;
+	}
+	// Singleton Pattern End
+
+	/**
+	 * Creates the tickable of a job when it is started.
+	 */
+	@FunctionalInterface
+	interface ScanFactory {
+		/**
+		 * @param budget Budget shared by all running scans.
+		 * @param endConsumer Code that has to be executed after scanning. Returns true if the datapack was committed.
+		 * @return Returns a new tickable which is not started yet.
+		 */
+		@NotNull MusicScanTickable create(@NotNull TickBudget budget, @NotNull Predicate<Void> endConsumer);
+	}
+
+	/**
+	 * A scan waiting for being started or running.
+	 */
+	private static final class Job {
+		private final String key, name;
+		private final boolean async;
+		private final ScanFactory factory;
+		private final Predicate<List<Player>> onFinish;
+
+		/**
+		 * Players who requested this job and are informed about it.
+		 */
+		private final List<Player> players = new ArrayList<>();
+
+		private Job(String key, String name, boolean async, ScanFactory factory, Predicate<List<Player>> onFinish) {
+			this.key = key;
+			this.name = name;
+			this.async = async;
+			this.factory = factory;
+			this.onFinish = onFinish;
+		}
+	}
+
+	/**
+	 * Maximum amount of scans running at the same time.
+	 */
+	private final int maxConcurrent;
+
+	/**
+	 * Maximum estimated bytes a scan may use.
+	 */
+	private final long heapQuota;
+
+	/**
+	 * Budget shared by all running scans.
+	 */
+	private final TickBudget budget;
+
+	/**
+	 * Jobs waiting for being started.
+	 */
+	private final Deque<Job> waiting = new ArrayDeque<>();
+
+	/**
+	 * Jobs which are running.
+	 */
+	private final List<Job> running = new ArrayList<>();
+
+	/**
+	 * Queued and running jobs by their key and by their datapack name.
+	 */
+	private final Map<String, Job> byKey = new HashMap<>(), byName = new HashMap<>();
+
+	private ScanCoordinator() {
+		final FileConfiguration config = CommandBlockHelper.PLUGIN.getConfig();
+		this.maxConcurrent = Math.max(1, config.getInt("savemusic.coordinator.max-concurrent-scans", 2));
+		this.heapQuota = Math.max(0, config.getLong("savemusic.coordinator.heap-quota-mb", 256)) * 1024 * 1024;
+		this.budget = createTickBudget();
+	}
+
+	/**
+	 * @return Returns a new tick budget configured in config.yml.
+	 */
+	static @NotNull TickBudget createTickBudget(){
+		final FileConfiguration config = CommandBlockHelper.PLUGIN.getConfig();
+		return new TickBudget(
+				config.getDouble("savemusic.tick-budget.initial-ms", 5),
+				config.getDouble("savemusic.tick-budget.min-ms", 1),
+				config.getDouble("savemusic.tick-budget.max-ms", 25),
+				config.getDouble("savemusic.tick-budget.target-mspt", 45));
+	}
+
+	/**
+	 * @return Returns true if a queued or running scan creates datapack with given name.
+	 */
+	boolean isScanning(@NotNull String name){
+		return byName.containsKey(name);
+	}
+
+	/**
+	 * Submits a new scan. It is started as soon as fewer than the maximum amount of scans are running.
+	 * @param player Player requesting the scan.
+	 * @param key Identifies what is scanned, e.g. the start location. Jobs with equal keys are collapsed.
+	 * @param name Name of datapack which will be created.
+	 * @param estimate Estimated bytes the scan will use at least.
+	 * @param async Defines if the scan is started asynchronously.
+	 * @param factory Creates the tickable when job is started.
+	 * @param onFinish Code executed after scanning with all players who requested the job. Returns true if the datapack was committed.
+	 */
+	void submit(@NotNull Player player, @NotNull String key, @NotNull String name, long estimate, boolean async,
+				@NotNull ScanFactory factory, @NotNull Predicate<List<Player>> onFinish){
+		// Collapse duplicate scans into the existing job
+		Job job = byKey.get(key);
+		if (job != null) {
+			if (!job.players.contains(player)) job.players.add(player);
+			message(player, ChatColor.GOLD + "This contraption is already being scanned into " + ChatColor.YELLOW + job.name
+					+ ChatColor.GOLD + ". You will be informed when it is finished.");
+			return;
+		}
+		if (byName.containsKey(name)) {
+			message(player, ChatColor.RED + "Datapack " + name + " is already being created by another scan!");
+			return;
+		}
+
+		// Admission control
+		if (heapQuota > 0 && estimate > heapQuota) {
+			message(player, ChatColor.RED + "Scan would need about " + estimate / (1024 * 1024) + "MB, which exceeds the heap quota of "
+					+ heapQuota / (1024 * 1024) + "MB!");
+			return;
+		}
+
+		job = new Job(key, name, async, factory, onFinish);
+		job.players.add(player);
+		byKey.put(key, job);
+		byName.put(name, job);
+		waiting.add(job);
+
+		if (running.size() >= maxConcurrent) {
+			message(player, ChatColor.GOLD + "Scan is queued at position " + waiting.size() + ".");
+		}
+		startWaiting();
+	}
+
+	/**
+	 * Starts waiting jobs until the maximum amount of scans is running.
+	 */
+	private void startWaiting(){
+		while (running.size() < maxConcurrent && !waiting.isEmpty()) {
+			final Job job = waiting.poll();
+
+			final MusicScanTickable tickable;
+			try {
+				tickable = job.factory.create(budget, unused -> {
+					done(job);
+					return job.onFinish.test(job.players);
+				});
+			} catch (RuntimeException e) {
+				CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot start scan of " + job.name + ".", e);
+				remove(job);
+				for (Player player : job.players) message(player, ChatColor.RED + "Cannot start scan: " + e.getMessage());
+				continue;
+			}
+			tickable.setMemoryQuota(heapQuota);
+			tickable.onFailure(e -> {
+				done(job);
+				for (Player player : job.players) message(player, ChatColor.RED + "Scan failed: " + e.getMessage());
+			});
+
+			running.add(job);
+			for (Player player : job.players) message(player, ChatColor.GOLD + "Starting to scan ...");
+			tickable.start(0, 0, !job.async);
+		}
+	}
+
+	/**
+	 * Removes finished or failed job and starts next waiting jobs.
+	 */
+	private void done(Job job){
+		running.remove(job);
+		remove(job);
+		startWaiting();
+	}
+
+	private void remove(Job job){
+		byKey.remove(job.key);
+		byName.remove(job.name);
+	}
+
+	private static void message(Player player, String message){
+		if (player.isOnline()) player.sendMessage(ChatColor.AQUA + "[/savemusic] " + message);
+	}
+}
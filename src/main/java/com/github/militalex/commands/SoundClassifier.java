@@ -0,0 +1,115 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.main.CommandBlockHelper;
+import org.bukkit.Sound;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class decides whether a sound of a playsound command is played on the record or on the voice fader. Minecraft sounds
+ * and custom sounds starting with a configured prefix are music and played on record, every other sound is played on voice.
+ * <br>
+ * Minecraft sounds are looked up in a hash set by key without namespace. Prefixes are stored in a trie, so that looking a
+ * sound up takes at most as many steps as the longest prefix has characters, no matter how many prefixes are configured.
+ * Classifying does not allocate. After creation this class is immutable and thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class SoundClassifier {
+	// Singleton Pattern
+	private static SoundClassifier classifier;
+
+	/**
+	 * @return Returns distinct SoundClassifier (Singleton Pattern).
+	 */
+	static synchronized SoundClassifier getInstance() {
+		if (classifier == null) classifier = new SoundClassifier(CommandBlockHelper.PLUGIN.getConfig().getStringList("savemusic.record-prefixes"));
+		return classifier;
+	}
+	// Singleton Pattern End
+
+	/**
+	 * Prefixes of custom music sounds used if none are configured.
+	 */
+	private static final List<String> DEFAULT_PREFIXES = List.of("ins_", "fx_", "klang_");
+
+	/**
+	 * Keys of all minecraft sounds without namespace.
+	 */
+	private final Set<String> vanilla = new HashSet<>();
+
+	// Trie of prefixes. Nodes are indices, children of a node are a linked list of siblings. Node 0 is root.
+
+	private int nodeCount = 1;
+	private char[] labels = new char[16];
+	private int[] firstChild = new int[16], nextSibling = new int[16];
+	private boolean[] terminal = new boolean[16];
+
+	private SoundClassifier(@NotNull List<String> prefixes) {
+		Arrays.stream(Sound.values()).forEach(sound -> vanilla.add(sound.getKey().getKey()));
+		(prefixes.isEmpty() ? DEFAULT_PREFIXES : prefixes).forEach(this::addPrefix);
+	}
+
+	/**
+	 * @param sound Sound of a playsound command without "minecraft:" namespace.
+	 * @return Returns true if given sound is music and played on record fader, otherwise it is played on voice fader.
+	 */
+	boolean isRecord(@NotNull String sound){
+		return vanilla.contains(sound) || hasPrefix(sound);
+	}
+
+	/**
+	 * @return Returns true if given sound starts with a configured prefix.
+	 */
+	private boolean hasPrefix(@NotNull String sound){
+		int node = 0;
+		for (int i = 0; i < sound.length(); i++) {
+			node = child(node, sound.charAt(i));
+			if (node == -1) return false;
+			if (terminal[node]) return true;
+		}
+		return false;
+	}
+
+	private void addPrefix(@NotNull String prefix){
+		if (prefix.isEmpty()) return;
+
+		int node = 0;
+		for (int i = 0; i < prefix.length(); i++) {
+			int child = child(node, prefix.charAt(i));
+			if (child == -1) {
+				child = newNode(prefix.charAt(i));
+				nextSibling[child] = firstChild[node];
+				firstChild[node] = child;
+			}
+			node = child;
+		}
+		terminal[node] = true;
+	}
+
+	/**
+	 * @return Returns child of given node with given label or -1 if there is none.
+	 */
+	private int child(int node, char label){
+		for (int child = firstChild[node]; child != 0; child = nextSibling[child]) {
+			if (labels[child] == label) return child;
+		}
+		return -1;
+	}
+
+	private int newNode(char label){
+		if (nodeCount == labels.length) {
+			labels = Arrays.copyOf(labels, nodeCount * 2);
+			firstChild = Arrays.copyOf(firstChild, nodeCount * 2);
+			nextSibling = Arrays.copyOf(nextSibling, nodeCount * 2);
+			terminal = Arrays.copyOf(terminal, nodeCount * 2);
+		}
+		labels[nodeCount] = label;
+		return nodeCount++;
+	}
+}
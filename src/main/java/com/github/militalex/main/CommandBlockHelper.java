@@ -1,6 +1,8 @@
 package com.github.militalex.main;
 
 import com.github.militalex.commands.MusicScanCommand;
+import com.github.militalex.util.datapack.DatapackManager;
+import com.github.militalex.util.tickables.TickBudget;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.logging.Logger;
@@ -29,6 +31,10 @@ public final class CommandBlockHelper extends JavaPlugin {
 		// Init Staff
 		PLUGIN = this;
 		LOGGER = getLogger();
+		saveDefaultConfig();
+
+		// Tick budgets adapt once per server tick
+		TickBudget.startCounting(this);
 
 		// Register commands
 		MusicScanCommand.register();
@@ -38,6 +44,9 @@ public final class CommandBlockHelper extends JavaPlugin {
 
 	@Override
 	public void onDisable() {
+		MusicScanCommand.unregister();
+		DatapackManager.closeIfCreated();
+
 		this.getLogger().info("--------- Command Block Helper successfully disabled. ---------");
 	}
 }
@@ -1,5 +1,6 @@
 package com.github.militalex.util;
 
+import com.github.militalex.util.world.RedstoneState;
 import de.tr7zw.nbtapi.NBTCompound;
 import de.tr7zw.nbtapi.NBTTileEntity;
 import de.tr7zw.nbtapi.NBTType;
@@ -7,6 +8,7 @@ import org.bukkit.*;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.CommandBlock;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.command.BlockCommandSender;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
@@ -81,7 +83,15 @@ public class CommandUtil {
      * @return Returns HashaMap with all blockStates of a block (e.g. facing -> south)
      */
     public static HashMap<String, String> getBlockStates(BlockState state){
-        String blockString = state.getBlockData().getAsString();
+        return getBlockStates(state.getBlockData());
+    }
+
+    /**
+     * @return Returns HashaMap with all blockStates of a block data (e.g. facing -> south)
+     * For frequently read redstone states use {@link RedstoneState#of(BlockData)} instead, which does not parse strings.
+     */
+    public static HashMap<String, String> getBlockStates(BlockData blockData){
+        String blockString = blockData.getAsString();
         blockString = blockString.substring(blockString.indexOf("[") + 1, blockString.lastIndexOf("]"));
         final List<String> stateList = Arrays.stream(blockString.split(",")).toList();
 
@@ -158,43 +168,13 @@ public class CommandUtil {
      * @return Returns if command in commandblock is a playsound command (Supports execute commands too).
      */
     public static boolean isCommandWithPlaysound(CommandSender sender, CommandBlock block){
-        //Get Command String
-        final String cmd = block.getCommand();
-
-        //Split Command into arguments
-        List<String> cmdArgs = Arrays.asList(cmd.split(" "));
+        final PlaySoundCommand playsound = PlaySoundCommand.parse(block.getCommand());
 
-        if (cmdArgs.get(0).equals("")){
+        if (playsound.isMissingRun()) {
+            sender.sendMessage(ChatColor.RED + "Execute command is not complete. Missing \"run\" argument.");
             return false;
         }
-
-        //Make compatible with execute
-        if (cmdArgs.get(0).equals("execute") || cmdArgs.get(0).equals("/execute")) {
-
-            if (!cmdArgs.contains("run")) {
-                sender.sendMessage(ChatColor.RED + "Execute command is not complete. Missing \"run\" argument.");
-                return false;
-            }
-
-            cmdArgs = new ArrayList<>(cmdArgs);
-
-            //Removes execute command from cmdArgs
-            for (int i = 0; i < cmdArgs.size(); ) {
-                //Append until "run"
-                if (cmdArgs.get(i).equals("run")) {
-                    cmdArgs.remove(i);
-                    break;
-                }
-                cmdArgs.remove(i);
-            }
-        }
-
-        //Removes /
-        if (cmdArgs.get(0).charAt(0) == '/') {
-            cmdArgs.set(0, cmdArgs.get(0).replaceFirst("/", ""));
-        }
-
-        return cmdArgs.get(0).equals("playsound");
+        return playsound.isPlaySound();
     }
 
     /**
@@ -203,56 +183,13 @@ public class CommandUtil {
      */
     public static @NotNull HomogenTuple<Double> extractVolumePitch(CommandBlock block){
         final HomogenTuple<Double> volpitch = new HomogenTuple<>(1.0, 1.0);
-
-        //Get Command String
-        final String cmd = block.getCommand();
-
-        //Split Command into arguments
-        List<String> cmdArgs = Arrays.asList(cmd.split(" "));
-
-        if (cmdArgs.get(0).equals("")){
-            return volpitch;
-        }
-
-        //Make compatible with execute
-        if (cmdArgs.get(0).equals("execute") || cmdArgs.get(0).equals("/execute")) {
-
-            if (!cmdArgs.contains("run")) {
-                return volpitch;
-            }
-
-            cmdArgs = new ArrayList<>(cmdArgs);
-
-            //Removes execute command from cmdArgs
-            for (int i = 0; i < cmdArgs.size(); ) {
-                //Append until "run"
-                if (cmdArgs.get(i).equals("run")) {
-                    cmdArgs.remove(i);
-                    break;
-                }
-                cmdArgs.remove(i);
-            }
-        }
-
-        //Removes /
-        if (cmdArgs.get(0).charAt(0) == '/') {
-            cmdArgs.set(0, cmdArgs.get(0).replaceFirst("/", ""));
-        }
+        final PlaySoundCommand playsound = PlaySoundCommand.parse(block.getCommand());
 
         try {
-            if (cmdArgs.get(0).equals("playsound")) {
-                if (cmdArgs.size() >= 8) {
-                    //Modify the command
-                    volpitch.setKey(Double.valueOf(cmdArgs.get(7)));
-                }
-
-                if (cmdArgs.size() >= 9) {
-                    //Modify the command
-                    volpitch.setValue(Double.valueOf(cmdArgs.get(8)));
-                }
-            }
+            if (playsound.has(PlaySoundCommand.VOLUME)) volpitch.setKey(playsound.getDouble(PlaySoundCommand.VOLUME));
+            if (playsound.has(PlaySoundCommand.PITCH)) volpitch.setValue(playsound.getDouble(PlaySoundCommand.PITCH));
         }
-        catch (Exception ignored){}
+        catch (NumberFormatException ignored){}
 
         return volpitch;
     }
@@ -262,65 +199,21 @@ public class CommandUtil {
      */
     @Nullable
     public static Boolean changeVolume(CommandSender sender, CommandBlock block, double newValue) {
-        //Get Command String
         final String cmd = block.getCommand();
+        final PlaySoundCommand playsound = PlaySoundCommand.parse(cmd);
 
-        //Split Command into arguments
-        List<String> cmdArgs = Arrays.asList(cmd.split(" "));
-
-        if (cmdArgs.get(0).equals("")){
-            return null;
-        }
-
-        //Make compatible with execute
-        final StringBuilder executePrepend = new StringBuilder();
-        if (cmdArgs.get(0).equals("execute") || cmdArgs.get(0).equals("/execute")) {
-
-            if (!cmdArgs.contains("run")) {
-                sender.sendMessage(ChatColor.RED + "Execute command is not complete. Missing \"run\" argument.");
-                return false;
-            }
-
-            cmdArgs = new ArrayList<>(cmdArgs);
-
-            //Removes execute command from cmdArgs and store it into executePrepend
-            for (int i = 0; i < cmdArgs.size(); ) {
-                //Append until "run"
-                if (cmdArgs.get(i).equals("run")) {
-                    executePrepend.append(cmdArgs.get(i)).append(" ");
-                    cmdArgs.remove(i);
-                    break;
-                }
-                executePrepend.append(cmdArgs.get(i)).append(" ");
-                cmdArgs.remove(i);
-            }
-        }
-
-        //Removes temporarily / (only from playsound commands) and saves that / was removed
-        boolean haveSlash = false;
-        if (cmdArgs.get(0).charAt(0) == '/') {
-            cmdArgs.set(0, cmdArgs.get(0).replaceFirst("/", ""));
-            haveSlash = true;
+        if (playsound.isMissingRun()) {
+            sender.sendMessage(ChatColor.RED + "Execute command is not complete. Missing \"run\" argument.");
+            return false;
         }
 
-        if (cmdArgs.get(0).equals("playsound") && cmdArgs.size() > 7) {
-            //Modify the command
-            cmdArgs.set(7, "" + newValue);
-
-            StringBuilder builder = new StringBuilder();
-            //Prepend execute command
-            builder.append(executePrepend);
-            //Puts "/" back to the front
-            if (haveSlash) builder.append("/");
-
-            //Reconstructs the playsound command
-            for (int i = 0; i < cmdArgs.size(); i++) {
-                builder.append(cmdArgs.get(i));
-                if (i != cmdArgs.size() - 1) builder.append(" ");
-            }
+        if (playsound.has(PlaySoundCommand.VOLUME)) {
+            //Replaces volume and keeps everything else of the command
+            final String newCommand = cmd.substring(0, playsound.getStart(PlaySoundCommand.VOLUME)) + newValue
+                    + cmd.substring(playsound.getEnd(PlaySoundCommand.VOLUME));
 
             //Sets new command to command Block.
-            CommandUtil.setCMDinBlock(block.getBlock(), builder.toString());
+            CommandUtil.setCMDinBlock(block.getBlock(), newCommand);
             return true;
         }
         return null;
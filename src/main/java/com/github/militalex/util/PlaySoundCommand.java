@@ -0,0 +1,234 @@
+package com.github.militalex.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tokenizer for playsound commands, also prefixed by execute commands ending with "run". Parsing does not copy the command
+ * but records where each argument starts and ends in it, so that a parser can be reused for many commands without allocating.
+ * Arguments are only copied when they are requested as strings.
+ * <br>
+ * A parser is not thread safe. {@link PlaySoundCommand#parse(String)} uses one parser per thread, its result is valid until
+ * the same thread parses the next command.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class PlaySoundCommand {
+
+	// Arguments of playsound command in their order
+
+	public static final int SOUND = 0;
+	public static final int SOURCE = 1;
+	public static final int TARGET = 2;
+	public static final int X = 3;
+	public static final int Y = 4;
+	public static final int Z = 5;
+	public static final int VOLUME = 6;
+	public static final int PITCH = 7;
+	public static final int MIN_VOLUME = 8;
+
+	/**
+	 * Amount of arguments a playsound command can have.
+	 */
+	private static final int ARGUMENT_COUNT = 9;
+
+	/**
+	 * Parser of every thread used by {@link PlaySoundCommand#parse(String)}.
+	 */
+	private static final ThreadLocal<PlaySoundCommand> PARSERS = ThreadLocal.withInitial(PlaySoundCommand::new);
+
+	/**
+	 * Command which was parsed last.
+	 */
+	private String command = "";
+
+	/**
+	 * Defines if last command is a playsound command or an execute command missing "run".
+	 */
+	private boolean playSound, missingRun;
+
+	/**
+	 * Index playsound keyword starts at, inclusive a leading slash.
+	 */
+	private int keywordStart;
+
+	/**
+	 * Start and end index of arguments in command.
+	 */
+	private final int[] starts = new int[ARGUMENT_COUNT], ends = new int[ARGUMENT_COUNT];
+
+	/**
+	 * Amount of arguments given.
+	 */
+	private int argumentCount;
+
+	/**
+	 * Parses given command with the parser of the current thread.
+	 * @return Returns parser of current thread, which is reused by next call on same thread.
+	 */
+	public static @NotNull PlaySoundCommand parse(@NotNull String command){
+		final PlaySoundCommand parser = PARSERS.get();
+		parser.parseCommand(command);
+		return parser;
+	}
+
+	/**
+	 * Parses given command. Tokens are separated by one or more spaces outside of brackets, braces and quoted strings.
+	 * @return Returns true if command is a playsound command.
+	 */
+	public boolean parseCommand(@NotNull String command){
+		this.command = command;
+		playSound = false;
+		missingRun = false;
+		keywordStart = 0;
+		argumentCount = 0;
+
+		int start = skipSpaces(0);
+		while (start < command.length()) {
+			int end = tokenEnd(start);
+
+			if (tokenEquals(start, end, "execute") || tokenEquals(start, end, "/execute")) {
+				// Skip execute subcommands until "run"
+				do {
+					start = skipSpaces(end);
+					end = tokenEnd(start);
+				} while (start < command.length() && !tokenEquals(start, end, "run"));
+
+				if (start >= command.length()) {
+					missingRun = true;
+					return false;
+				}
+				start = skipSpaces(end);
+				continue;
+			}
+
+			if (!tokenEquals(start, end, "playsound") && !tokenEquals(start, end, "/playsound")) return false;
+			playSound = true;
+			keywordStart = start;
+
+			// Record arguments
+			start = skipSpaces(end);
+			while (start < command.length() && argumentCount < ARGUMENT_COUNT) {
+				end = tokenEnd(start);
+				starts[argumentCount] = start;
+				ends[argumentCount] = end;
+				argumentCount++;
+				start = skipSpaces(end);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return Returns command which was parsed last.
+	 */
+	public @NotNull String getCommand(){
+		return command;
+	}
+
+	/**
+	 * @return Returns true if last command is a playsound command, also prefixed by execute.
+	 */
+	public boolean isPlaySound(){
+		return playSound;
+	}
+
+	/**
+	 * @return Returns true if last command is an execute command without "run" argument.
+	 */
+	public boolean isMissingRun(){
+		return missingRun;
+	}
+
+	/**
+	 * @return Returns index playsound keyword starts at, inclusive a leading slash, or 0 if last command is no playsound command.
+	 * Everything before is the execute prefix.
+	 */
+	public int getKeywordStart(){
+		return keywordStart;
+	}
+
+	/**
+	 * @return Returns amount of arguments of playsound command.
+	 */
+	public int getArgumentCount(){
+		return argumentCount;
+	}
+
+	/**
+	 * @param argument One of {@link PlaySoundCommand#SOUND}, {@link PlaySoundCommand#SOURCE}, ... {@link PlaySoundCommand#MIN_VOLUME}.
+	 * @return Returns true if given argument is given.
+	 */
+	public boolean has(int argument){
+		return argument < argumentCount;
+	}
+
+	/**
+	 * @return Returns index given argument starts at in command.
+	 */
+	public int getStart(int argument){
+		checkArgument(argument);
+		return starts[argument];
+	}
+
+	/**
+	 * @return Returns index after given argument in command.
+	 */
+	public int getEnd(int argument){
+		checkArgument(argument);
+		return ends[argument];
+	}
+
+	/**
+	 * @return Returns given argument as string.
+	 */
+	public @NotNull String get(int argument){
+		checkArgument(argument);
+		return command.substring(starts[argument], ends[argument]);
+	}
+
+	/**
+	 * @return Returns given argument as number.
+	 * @throws NumberFormatException if argument is no number.
+	 */
+	public double getDouble(int argument){
+		return Double.parseDouble(get(argument));
+	}
+
+	private void checkArgument(int argument){
+		if (!has(argument)) throw new IllegalArgumentException("Playsound command has no argument " + argument + ": " + command);
+	}
+
+	private int skipSpaces(int index){
+		while (index < command.length() && command.charAt(index) == ' ') index++;
+		return index;
+	}
+
+	/**
+	 * @return Returns index after token starting at given index. Spaces inside brackets, braces and quoted strings do not end
+	 * a token, so that selectors like {@code @a[tag=x, distance=..5]} and nbt stay one argument. An unclosed bracket extends
+	 * token until end of command.
+	 */
+	private int tokenEnd(int index){
+		final int start = index;
+		int depth = 0;
+		char quote = 0;
+		for (; index < command.length(); index++) {
+			final char c = command.charAt(index);
+			if (quote != 0) {
+				if (c == '\\') index++;
+				else if (c == quote) quote = 0;
+			}
+			else if ((c == '"' || c == '\'') && (depth > 0 || index == start)) quote = c;
+			else if (c == '[' || c == '{') depth++;
+			else if ((c == ']' || c == '}') && depth > 0) depth--;
+			else if (c == ' ' && depth == 0) break;
+		}
+		return Math.min(index, command.length());
+	}
+
+	private boolean tokenEquals(int start, int end, @NotNull String token){
+		return end - start == token.length() && command.startsWith(token, start);
+	}
+}
@@ -2,13 +2,24 @@ package com.github.militalex.util.datapack;
 
 
 import com.github.militalex.util.CommandExecutor;
-import com.github.militalex.util.FileUtil;
 import lombok.Getter;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 /**
  * This class represents an abstract datapack with currently limited functions, because this Plugin currently need more.
@@ -16,7 +27,7 @@ import java.nio.file.StandardOpenOption;
  * @author Militalex
  * @version 1.1
  */
-public class Datapack {
+public class Datapack implements Closeable {
 
 	/**
 	 * Main directory of Datapack.
@@ -28,13 +39,33 @@ public class Datapack {
 	 */
 	private final String name;
 
+	/**
+	 * File system of zip file if Datapack is zipped, otherwise null.
+	 */
+	private final FileSystem zipFileSystem;
+
+	/**
+	 * Function directories which are known to exist. Thread safe, because functions may be put from several threads.
+	 */
+	private final Set<Path> createdDirs = ConcurrentHashMap.newKeySet();
+
 	/**
 	 * Will creates a new Datapack in Datapack folder eith given {@code name}.
 	 * @param name Name of new created Datapack.
 	 */
 	Datapack(String name){
+		this(name, DatapackManager.DATAPACK_FOLDER.resolve(name));
+	}
+
+	/**
+	 * Will creates a new Datapack with given {@code name} in given directory, e.g. to stage it before it is moved into Datapack folder.
+	 * @param name Name of new created Datapack.
+	 * @param path Main directory of new created Datapack. It must not exist yet.
+	 */
+	Datapack(String name, Path path){
 		this.name = name;
-		this.path = DatapackManager.DATAPACK_FOLDER.resolve(name);
+		this.path = path;
+		this.zipFileSystem = null;
 		try {
 			Files.createDirectory(path);
 
@@ -58,6 +89,50 @@ public class Datapack {
 	Datapack(Path path){
 		this.path = path;
 		this.name = path.toFile().getName();
+		this.zipFileSystem = null;
+	}
+
+	/**
+	 * Constructs already existent zipped Datapack.
+	 * @param zipFileSystem File system of zip file, which is closed by {@link Datapack#close()}.
+	 */
+	Datapack(FileSystem zipFileSystem){
+		this.path = zipFileSystem.getPath("/");
+		final String zipName = Path.of(zipFileSystem.toString()).getFileName().toString();
+		this.name = zipName.endsWith(".zip") ? zipName.substring(0, zipName.length() - ".zip".length()) : zipName;
+		this.zipFileSystem = zipFileSystem;
+	}
+
+	/**
+	 * @return Returns true if Datapack is a zip file.
+	 */
+	public boolean isZipped(){
+		return zipFileSystem != null;
+	}
+
+	/**
+	 * @return Returns names of all functions in given namespace without ".mcfunction".
+	 * @throws IOException Throws an IOException if an I/O error occurs when listing the functions.
+	 */
+	public List<String> getFunctions(String nameSpace) throws IOException {
+		final Path functionsDir = path.resolve("data").resolve(nameSpace).resolve("functions");
+		if (!Files.isDirectory(functionsDir)) return List.of();
+
+		try (Stream<Path> functions = Files.list(functionsDir)) {
+			return functions.map(function -> function.getFileName().toString())
+					.filter(fName -> fName.endsWith(".mcfunction"))
+					.map(fName -> fName.substring(0, fName.length() - ".mcfunction".length()))
+					.toList();
+		}
+	}
+
+	/**
+	 * Closes zip file of a zipped Datapack, so that changes are written into it. Does nothing for Datapacks which are directories.
+	 * @throws IOException Throws an IOException if an I/O error occurs when writing the zip file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (zipFileSystem != null) zipFileSystem.close();
 	}
 
 	/**
@@ -69,18 +144,78 @@ public class Datapack {
 	 * @return Returns path to created function.
 	 */
 	public Path putCommandsIntoFunc(String nameSpace, String fname, String... cmds){
-		final Path funcPath = path.resolve("data").resolve(nameSpace).resolve("functions").resolve(fname + ".mcfunction");
+		final StringBuilder content = new StringBuilder();
+		for (String cmd : cmds) content.append(cmd).append("\n");
 
-		if (!FileUtil.createIfNotExists(funcPath)) throw new IllegalArgumentException(funcPath + " cannot created!");
+		final Path funcPath = getFunctionPath(nameSpace, fname);
+		try {
+			append(funcPath, content);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(funcPath + " cannot written!", e);
+		}
+		return funcPath;
+	}
 
-		for (String cmd : cmds) {
+	/**
+	 * Creates new mcfunctions or appends to existing ones in Datapack with given {@code nameSpace}. Every function is written
+	 * with a single write, so that writing many functions costs one open per function.
+	 * @param nameSpace Namespace of functions (namespace:fname).
+	 * @param functions Content of functions by name of mcfunction. Content has to end with a line break.
+	 */
+	public void putFunctions(String nameSpace, Map<String, ? extends CharSequence> functions){
+		for (Map.Entry<String, ? extends CharSequence> function : functions.entrySet()) {
+			final Path funcPath = getFunctionPath(nameSpace, function.getKey());
 			try {
-				Files.writeString(funcPath, cmd + "\n", StandardOpenOption.APPEND);
+				append(funcPath, function.getValue());
 			} catch (IOException e) {
-				throw new IllegalArgumentException(cmd + " cannot written to file!", e);
+				throw new IllegalArgumentException(funcPath + " cannot written!", e);
 			}
 		}
-		return funcPath;
+	}
+
+	/**
+	 * Forces given functions to disk, so that they survive a crash. Functions should be forced once after all writes into them
+	 * are done, because every forced function waits for the disk.
+	 * @param nameSpace Namespace of functions (namespace:fname).
+	 * @param functions Names of mcfunctions which exist.
+	 */
+	public void force(String nameSpace, Collection<String> functions){
+		for (String function : functions) {
+			final Path funcPath = getFunctionPath(nameSpace, function);
+			try (FileChannel channel = FileChannel.open(funcPath, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(funcPath + " cannot forced to disk!", e);
+			}
+		}
+	}
+
+	/**
+	 * @return Returns path of given function. Its directory is created if it does not exist.
+	 */
+	private Path getFunctionPath(String nameSpace, String fname){
+		final Path functionsDir = path.resolve("data").resolve(nameSpace).resolve("functions");
+
+		// Directories are only checked the first time a function is put into them
+		if (!createdDirs.contains(functionsDir)) {
+			try {
+				Files.createDirectories(functionsDir);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(functionsDir + " cannot created!", e);
+			}
+			createdDirs.add(functionsDir);
+		}
+		return functionsDir.resolve(fname + ".mcfunction");
+	}
+
+	/**
+	 * Appends given content to given file with a single channel write.
+	 */
+	private static void append(Path file, CharSequence content) throws IOException {
+		final ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(content));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			while (bytes.hasRemaining()) channel.write(bytes);
+		}
 	}
 
 	/**
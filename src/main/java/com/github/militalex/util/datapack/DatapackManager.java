@@ -1,17 +1,35 @@
 package com.github.militalex.util.datapack;
 
+import com.github.militalex.main.CommandBlockHelper;
 import com.github.militalex.main.ServerPropertiesManager;
 import org.bukkit.Bukkit;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * This class is a simple abstract interface for working with Datapacks. Currently, the amount functions are low, because
  * this Plugin does not need so many functions for managing Datapacks, but offers the opportunity for me to add more functions if needed.
- * <br><b>
- * Currently, the class only supports non-zipped Datapacks!
- * </b><br>
+ * <br>
+ * Datapacks are either directories or zip files named after the datapack. Zipped Datapacks can be opened and listed, but new
+ * Datapacks are always created as directory and can be zipped when they are complete, see {@link DatapackManager#zip(String)}.
+ * <br>
+ * Generated Datapacks are built in {@link DatapackManager#STAGING_FOLDER} and become visible at once by
+ * {@link DatapackManager#commit(String, boolean)}, so that a crash or reload never sees a half written Datapack.
+ * <br>
+ * Known Datapacks are held in a registry, which is filled once and kept up to date by a {@link WatchService} on
+ * {@link DatapackManager#DATAPACK_FOLDER}, so that looking a Datapack up does not touch the file system. Functions of a
+ * Datapack are listed when they are requested first and listed again after a change. The registry is thread safe.
+ * If the file system cannot be watched, every lookup lists the Datapack folder again.
+ * <br>
  * @author Militalex
  * @version 1.0
  */
@@ -22,7 +40,7 @@ public class DatapackManager {
 	/**
 	 * @return Returns distinct DatapackManager (Singleton Pattern).
 	 */
-	public static DatapackManager getInstance() {
+	public static synchronized DatapackManager getInstance() {
 		if (manager == null) manager = new DatapackManager();
 		return manager;
 	}
@@ -33,10 +51,149 @@ public class DatapackManager {
 	 */
 	public static final Path DATAPACK_FOLDER = Paths.get(ServerPropertiesManager.getInstance().getProperty("level-name") + "/datapacks");
 
-	private DatapackManager(){ }
+	/**
+	 * Folder Datapacks are built in before they are committed into {@link DatapackManager#DATAPACK_FOLDER}. It is next to it,
+	 * so that committing is a rename on the same file system, and outside of it, so that reloads never see staged Datapacks.
+	 */
+	public static final Path STAGING_FOLDER = DATAPACK_FOLDER.resolveSibling("datapacks_staging");
+
+	/**
+	 * Known Datapacks by name. Value defines if Datapack is zipped.
+	 */
+	private final Map<String, Boolean> packs = new ConcurrentHashMap<>();
 
+	/**
+	 * Listed functions (namespace:function) by name of Datapack. Removed when Datapack changes.
+	 */
+	private final Map<String, Set<String>> functions = new ConcurrentHashMap<>();
+
+	/**
+	 * Counts how often listed functions were dropped, so that a listing running meanwhile is not cached.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Watched directories of Datapacks containing functions by their watch key, values are names of Datapacks.
+	 */
+	private final Map<WatchKey, String> functionKeys = new ConcurrentHashMap<>();
+
+	/**
+	 * Names of staged Datapacks which are in use, so that a running generation is never replaced by another one.
+	 */
+	private final Set<String> staging = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Watches Datapack folder and listed function directories or null if file system cannot be watched.
+	 */
+	private final WatchService watchService;
+
+	private DatapackManager(){
+		WatchService watchService = null;
+		try {
+			Files.createDirectories(DATAPACK_FOLDER);
+			watchService = DATAPACK_FOLDER.getFileSystem().newWatchService();
+			DATAPACK_FOLDER.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException | UnsupportedOperationException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot watch " + DATAPACK_FOLDER + ", Datapacks are looked up on every access.", e);
+			watchService = null;
+		}
+		this.watchService = watchService;
+		scan();
+
+		if (watchService != null) {
+			final Thread thread = new Thread(this::watch, "Datapack folder watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * @return Returns true if a Datapack with given name exists, zipped or not.
+	 */
 	public boolean exists(String name){
-		return DATAPACK_FOLDER.resolve(name).toFile().exists();
+		if (watchService == null) scan();
+		return packs.containsKey(name);
+	}
+
+	/**
+	 * @return Returns true if Datapack with given name is a zip file.
+	 */
+	public boolean isZipped(String name){
+		if (watchService == null) scan();
+		return packs.getOrDefault(name, false);
+	}
+
+	/**
+	 * @return Returns names of all Datapacks, zipped or not, sorted by name.
+	 */
+	public List<String> list(){
+		if (watchService == null) scan();
+		final List<String> names = new ArrayList<>(packs.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * @return Returns all functions (namespace:function) of Datapack with given name or an empty set if it does not exist.
+	 * Functions are listed once and listed again after Datapack changed.
+	 */
+	public Set<String> getFunctions(String name){
+		if (!exists(name)) return Set.of();
+		final Set<String> cached = functions.get(name);
+		if (cached != null && watchService != null) return cached;
+
+		// Listing is only cached if nothing changed while listing
+		final long listedGeneration = generation.get();
+		final Set<String> listed = listFunctions(name);
+		functions.compute(name, (key, current) -> generation.get() == listedGeneration ? listed : current);
+		return listed;
+	}
+
+	/**
+	 * Stops watching Datapack folder. Next call of {@link DatapackManager#getInstance()} creates a new registry.
+	 */
+	public void close(){
+		synchronized (DatapackManager.class) {
+			if (manager == this) manager = null;
+		}
+		if (watchService == null) return;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot stop watching " + DATAPACK_FOLDER + ".", e);
+		}
+	}
+
+	/**
+	 * Closes DatapackManager if it was created, e.g. when plugin is disabled, so that it is not created only to be closed.
+	 */
+	public static void closeIfCreated(){
+		final DatapackManager created;
+		synchronized (DatapackManager.class) {
+			created = manager;
+		}
+		if (created != null) created.close();
+	}
+
+	/**
+	 * Opens existing Datapack with given name. A zipped Datapack is opened as zip file system, which has to be closed by
+	 * {@link Datapack#close()}. Changes to it are written into the zip file when it is closed.
+	 * @param name Name of existent Datapack.
+	 * @return Returns Datapack corresponding to given name.
+	 * @throws IllegalArgumentException if there is no Datapack with given name or zip file cannot be opened.
+	 */
+	public Datapack open(String name){
+		if (isZipped(name)) {
+			try {
+				return new Datapack(FileSystems.newFileSystem(getZipPath(name)));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Zipped Datapack " + name + " cannot be opened!", e);
+			}
+		}
+		final Path path = DATAPACK_FOLDER.resolve(name);
+		if (!Files.isDirectory(path)) throw new IllegalArgumentException("Datapack " + name + " does not exist!");
+		return new Datapack(path);
 	}
 
 	/**
@@ -46,10 +203,370 @@ public class DatapackManager {
 	 * @return Returns a Datapack corresponding to given name.
 	 */
 	public Datapack getOrCreate(String name){
+		if (isZipped(name)) throw new IllegalArgumentException("Datapack " + name + " is zipped and can only be opened.");
 		final Path path = DATAPACK_FOLDER.resolve(name);
 
-		if (path.toFile().exists()) return new Datapack(path);
-		else return new Datapack(name);
+		if (exists(name)) return new Datapack(path);
+
+		final Datapack datapack = new Datapack(name);
+		packs.put(name, false);
+		return datapack;
+	}
+
+	/**
+	 * Creates a new Datapack with given name in staging folder. It is in use until it is committed or discarded, see
+	 * {@link DatapackManager#commit(String, boolean)} and {@link DatapackManager#discardStaged(String)}. A staged Datapack
+	 * left over by an interrupted generation, e.g. by a server stop, is replaced.
+	 * @param name Name of new created Datapack.
+	 * @return Returns staged Datapack.
+	 * @throws IllegalArgumentException if staged Datapack with given name is in use or cannot be created.
+	 */
+	public Datapack createStaged(String name){
+		if (!staging.add(name)) throw new IllegalArgumentException("Datapack " + name + " is already being generated!");
+
+		final Path path = STAGING_FOLDER.resolve(name);
+		try {
+			deleteDirectory(path);
+			Files.createDirectories(STAGING_FOLDER);
+			return new Datapack(name, path);
+		} catch (IOException | IllegalArgumentException e) {
+			staging.remove(name);
+			throw e instanceof IllegalArgumentException illegal ? illegal : new IllegalArgumentException("Datapack creation of " + name + " failed!", e);
+		}
+	}
+
+	/**
+	 * @return Returns staged Datapack with given name or null if there is none.
+	 */
+	public Datapack getStaged(String name){
+		final Path path = STAGING_FOLDER.resolve(name);
+		return Files.isDirectory(path) ? new Datapack(path) : null;
+	}
+
+	/**
+	 * Makes staged Datapack with given name visible in Datapack folder with a single atomic move. If it should be zipped,
+	 * the zip file is written under a temporary name and moved into place instead.
+	 * @param name Name of staged Datapack.
+	 * @param zipped Defines if committed Datapack is a zip file.
+	 * @return Returns path of committed Datapack.
+	 * @throws IOException Throws an IOException if an I/O error occurs when moving or zipping, e.g. because Datapack already exists.
+	 * The staged Datapack is kept then.
+	 */
+	public Path commit(String name, boolean zipped) throws IOException {
+		final Path staged = STAGING_FOLDER.resolve(name);
+		if (!Files.isDirectory(staged)) throw new IllegalArgumentException("There is no staged Datapack " + name + "!");
+		if (exists(name)) throw new FileAlreadyExistsException(DATAPACK_FOLDER.resolve(name).toString());
+
+		if (zipped) {
+			final Path zip = zip(staged, name);
+			staging.remove(name);
+			return zip;
+		}
+
+		final Path path = DATAPACK_FOLDER.resolve(name);
+		Files.createDirectories(DATAPACK_FOLDER);
+		Files.move(staged, path, StandardCopyOption.ATOMIC_MOVE);
+		staging.remove(name);
+		packs.put(name, false);
+		return path;
+	}
+
+	/**
+	 * Creates an empty patch of existing Datapack directory with given name in staging folder. Files put into the patch
+	 * are moved into the Datapack by {@link DatapackManager#applyPatch(String, boolean)}, so that only changed files are written.
+	 * A patch left over by an interrupted update is replaced.
+	 * @param name Name of existent Datapack, which is a directory.
+	 * @return Returns patch as Datapack, which has the same layout as the patched Datapack.
+	 * @throws IllegalArgumentException if there is no such Datapack or creating the patch fails.
+	 */
+	public Datapack stagePatch(String name){
+		if (!Files.isDirectory(DATAPACK_FOLDER.resolve(name))) throw new IllegalArgumentException("Datapack " + name + " does not exist!");
+
+		final Path patch = getPatchPath(name);
+		try {
+			deleteDirectory(patch);
+			Files.createDirectories(patch);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Staging of patch of Datapack " + name + " failed!", e);
+		}
+		return new Datapack(patch);
+	}
+
+	/**
+	 * Moves every file of patch of Datapack with given name into the Datapack, each atomically replacing the old file.
+	 * Has to be called on server thread, so that no reload can happen before all files are moved. The patch is deleted afterwards.
+	 * @param name Name of patched Datapack.
+	 * @param exclusive Defines if functions of the Datapack missing in the patch are deleted from every function directory
+	 * the patch contains, e.g. because the patch contains all functions of a namespace.
+	 * @return Returns amount of moved files.
+	 * @throws IOException Throws an IOException if an I/O error occurs when moving or deleting. The files not moved yet are kept in the patch then.
+	 * @throws IllegalArgumentException if there is no patch or no Datapack directory to patch.
+	 */
+	public int applyPatch(String name, boolean exclusive) throws IOException {
+		final Path patch = getPatchPath(name);
+		if (!Files.isDirectory(patch)) throw new IllegalArgumentException("There is no patch of Datapack " + name + "!");
+		final Path path = DATAPACK_FOLDER.resolve(name);
+		if (!Files.isDirectory(path)) throw new IllegalArgumentException("Datapack " + name + " does not exist!");
+
+		final List<Path> files;
+		try (Stream<Path> walk = Files.walk(patch)) {
+			files = walk.filter(Files::isRegularFile).map(patch::relativize).toList();
+		}
+
+		if (exclusive) {
+			final Set<Path> dirs = new HashSet<>();
+			for (Path file : files) dirs.add(file.getParent());
+			for (Path dir : dirs) {
+				if (dir == null || !Files.isDirectory(path.resolve(dir))) continue;
+				try (Stream<Path> content = Files.list(path.resolve(dir))) {
+					for (Path file : (Iterable<Path>) content::iterator) {
+						final Path relative = path.relativize(file);
+						if (relative.getFileName().toString().endsWith(".mcfunction") && !Files.exists(patch.resolve(relative))) Files.delete(file);
+					}
+				}
+			}
+		}
+
+		for (Path file : files) {
+			final Path target = path.resolve(file);
+			Files.createDirectories(target.getParent());
+			Files.move(patch.resolve(file), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		deleteDirectory(patch);
+
+		// Registry is updated at once, watcher would do it a bit later
+		packs.put(name, false);
+		dropFunctions(name);
+		return files.size();
+	}
+
+	/**
+	 * Deletes patch of Datapack with given name if there is one.
+	 * @throws IOException Throws an IOException if an I/O error occurs when deleting.
+	 */
+	public void discardPatch(String name) throws IOException {
+		deleteDirectory(getPatchPath(name));
+	}
+
+	/**
+	 * @return Returns path of patch of Datapack with given name in staging folder.
+	 */
+	private static Path getPatchPath(String name){
+		return STAGING_FOLDER.resolve(name + ".patch");
+	}
+
+	/**
+	 * Deletes staged Datapack with given name if there is one.
+	 * @throws IOException Throws an IOException if an I/O error occurs when deleting.
+	 */
+	public void discardStaged(String name) throws IOException {
+		try {
+			deleteDirectory(STAGING_FOLDER.resolve(name));
+		} finally {
+			staging.remove(name);
+		}
+	}
+
+	/**
+	 * Replaces Datapack directory with given name by a zip file containing every file of it, streamed in a single pass.
+	 * The zip file is written under a temporary name and moved into place, so that it is never seen half written.
+	 * @param name Name of a Datapack which is a directory.
+	 * @return Returns path of zip file.
+	 * @throws IOException Throws an IOException if an I/O error occurs when zipping.
+	 */
+	public Path zip(String name) throws IOException {
+		final Path path = DATAPACK_FOLDER.resolve(name);
+		if (!Files.isDirectory(path)) throw new IllegalArgumentException("Datapack " + name + " is no directory!");
+		return zip(path, name);
+	}
+
+	/**
+	 * Replaces given Datapack directory by a zip file in Datapack folder with given name.
+	 * @return Returns path of zip file.
+	 */
+	private Path zip(Path path, String name) throws IOException {
+		final Path zip = getZipPath(name);
+		final Path temp = zip.resolveSibling(zip.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temp); ZipOutputStream zipOut = new ZipOutputStream(out);
+			 Stream<Path> files = Files.walk(path)) {
+			for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+				// Zip entries always use slashes
+				zipOut.putNextEntry(new ZipEntry(path.relativize(file).toString().replace('\\', '/')));
+				Files.copy(file, zipOut);
+				zipOut.closeEntry();
+			}
+		}
+		Files.move(temp, zip, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		deleteDirectory(path);
+
+		// Registry is updated at once, watcher would do it a bit later
+		packs.put(name, true);
+		dropFunctions(name);
+		return zip;
+	}
+
+	/**
+	 * Merges all Datapacks in Datapack folder into registry. Datapacks may be committed while scanning, so a Datapack missing
+	 * in the listing is only removed if it is still missing afterwards.
+	 */
+	private void scan(){
+		final Map<String, Boolean> found = new HashMap<>();
+		if (Files.isDirectory(DATAPACK_FOLDER)) {
+			try (Stream<Path> content = Files.list(DATAPACK_FOLDER)) {
+				content.forEach(pack -> {
+					final String name = getPackName(pack);
+					if (name != null) found.put(name, !Files.isDirectory(pack));
+				});
+			} catch (IOException e) {
+				CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot list " + DATAPACK_FOLDER + ".", e);
+				return;
+			}
+		}
+		packs.putAll(found);
+
+		for (String name : packs.keySet()) {
+			if (found.containsKey(name) || Files.isDirectory(DATAPACK_FOLDER.resolve(name)) || Files.isRegularFile(getZipPath(name))) continue;
+			packs.remove(name);
+			dropFunctions(name);
+		}
+	}
+
+	/**
+	 * Drops listed functions of Datapack with given name, so that they are listed again.
+	 */
+	private void dropFunctions(String name){
+		// Generation is counted first, so that a listing running meanwhile is not cached afterwards
+		generation.incrementAndGet();
+		functions.remove(name);
+	}
+
+	/**
+	 * Updates registry on changes in Datapack folder and its watched function directories. Runs on its own thread until
+	 * watch service is closed.
+	 */
+	private void watch(){
+		while (true) {
+			final WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			// Any change inside of a watched directory changes functions of its Datapack
+			final String functionsOf = functionKeys.get(key);
+			if (functionsOf != null) {
+				dropFunctions(functionsOf);
+				key.pollEvents();
+				key.cancel();
+				functionKeys.remove(key);
+				continue;
+			}
+
+			for (WatchEvent<?> event : key.pollEvents()) {
+				// Events were lost, so everything is looked up again
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					scan();
+					generation.incrementAndGet();
+					functions.clear();
+					continue;
+				}
+
+				final Path pack = DATAPACK_FOLDER.resolve((Path) event.context());
+				final String name = getPackName(pack);
+				if (name == null) continue;
+
+				dropFunctions(name);
+				if (Files.isDirectory(pack)) packs.put(name, false);
+				else if (Files.isRegularFile(pack)) packs.put(name, true);
+				else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					// Datapack may exist in the other format
+					if (Files.isDirectory(DATAPACK_FOLDER.resolve(name))) packs.put(name, false);
+					else if (Files.isRegularFile(getZipPath(name))) packs.put(name, true);
+					else packs.remove(name);
+				}
+			}
+			if (!key.reset()) return;
+		}
+	}
+
+	/**
+	 * Lists all functions of Datapack with given name. Every directory on the way to a function is watched, inclusive the
+	 * directories of Datapack, data and namespaces, so that the listing is dropped when functions or function directories change.
+	 */
+	private Set<String> listFunctions(String name){
+		final Set<String> listed = new HashSet<>();
+		try (Datapack datapack = open(name)) {
+			// Zip files are watched as a whole by the Datapack folder
+			final boolean watched = !datapack.isZipped() && watchService != null;
+			if (watched) watchFunctions(datapack.getPath(), name);
+
+			final Path data = datapack.getPath().resolve("data");
+			if (!Files.isDirectory(data)) return Collections.unmodifiableSet(listed);
+			if (watched) watchFunctions(data, name);
+
+			try (Stream<Path> nameSpaces = Files.list(data)) {
+				for (Path nameSpace : (Iterable<Path>) nameSpaces::iterator) {
+					if (!Files.isDirectory(nameSpace)) continue;
+					if (watched) watchFunctions(nameSpace, name);
+
+					final Path functionsDir = nameSpace.resolve("functions");
+					if (!Files.isDirectory(functionsDir)) continue;
+
+					try (Stream<Path> files = Files.walk(functionsDir)) {
+						for (Path file : (Iterable<Path>) files::iterator) {
+							if (Files.isDirectory(file)) {
+								if (watched) watchFunctions(file, name);
+								continue;
+							}
+
+							final String fName = functionsDir.relativize(file).toString().replace('\\', '/');
+							if (fName.endsWith(".mcfunction"))
+								listed.add(nameSpace.getFileName().toString().replace("/", "") + ":" + fName.substring(0, fName.length() - ".mcfunction".length()));
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			CommandBlockHelper.LOGGER.log(Level.WARNING, "Cannot list functions of Datapack " + name + ".", e);
+		}
+		return Collections.unmodifiableSet(listed);
+	}
+
+	/**
+	 * Watches given directory of Datapack with given name, so that its listed functions are dropped when the directory changes.
+	 */
+	private void watchFunctions(Path dir, String name) throws IOException {
+		functionKeys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY), name);
+	}
+
+	/**
+	 * @return Returns name of Datapack at given path in Datapack folder or null if it is no Datapack.
+	 */
+	private static String getPackName(Path pack){
+		final String fileName = pack.getFileName().toString();
+		if (fileName.endsWith(".zip")) return fileName.substring(0, fileName.length() - ".zip".length());
+		if (fileName.endsWith(".tmp") || Files.isRegularFile(pack)) return null;
+		return fileName;
+	}
+
+	/**
+	 * Deletes given directory with its content if it exists. Content is deleted deepest first.
+	 */
+	private static void deleteDirectory(Path path) throws IOException {
+		if (!Files.exists(path)) return;
+		try (Stream<Path> files = Files.walk(path)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(file);
+		}
+	}
+
+	/**
+	 * @return Returns path a zipped Datapack with given name has.
+	 */
+	private static Path getZipPath(String name){
+		return DATAPACK_FOLDER.resolve(name + ".zip");
 	}
 
 	/**
@@ -0,0 +1,200 @@
+package com.github.militalex.util.datapack;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class writes functions into a {@link Datapack} on its own thread, so that producing functions does not wait for the disk.
+ * Functions are handed over in immutable batches through a queue holding at most {@link DatapackWriter#CAPACITY} batches.
+ * A producer submitting into a full queue waits until the writer caught up, so that memory does not grow when the disk
+ * falls behind. The server thread never waits, its batch is queued beyond the capacity instead. A producer on server thread
+ * therefore has to pause while {@link DatapackWriter#isBackedUp()} is true, so that it exceeds the capacity by one batch at most.
+ * <br>
+ * Functions are forced to disk once, after the last batch is written, so that waiting for the disk does not slow down
+ * producers. {@link DatapackWriter#close()} returns a future completing when every submitted function is durably written.
+ * If writing fails, the remaining batches are dropped and the future fails. If the writer thread stops, the future fails as
+ * well and producers waiting for a place in the queue are woken up and fail, so that they never wait for a writer which is gone.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class DatapackWriter {
+
+	/**
+	 * Maximum amount of batches waiting to be written before producers wait.
+	 */
+	public static final int CAPACITY = 16;
+
+	/**
+	 * Datapack functions are written into.
+	 */
+	private final Datapack datapack;
+
+	/**
+	 * Namespace of written functions.
+	 */
+	private final String nameSpace;
+
+	/**
+	 * Batches waiting to be written.
+	 */
+	private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+
+	/**
+	 * Free places in queue.
+	 */
+	private final Semaphore capacity = new Semaphore(CAPACITY);
+
+	/**
+	 * Completes when every submitted function is durably written.
+	 */
+	private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+	/**
+	 * Defines if no further batches are accepted.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Defines if the writer thread stopped, so that nothing takes batches from the queue anymore.
+	 */
+	private volatile boolean stopped;
+
+	/**
+	 * Names of written functions, which are forced to disk at the end. Only used by writer thread.
+	 */
+	private final Set<String> written = new LinkedHashSet<>();
+
+	/**
+	 * Starts the writer thread.
+	 * @param datapack Datapack functions are written into.
+	 * @param nameSpace Namespace of written functions.
+	 */
+	public DatapackWriter(@NotNull Datapack datapack, @NotNull String nameSpace) {
+		this.datapack = datapack;
+		this.nameSpace = nameSpace;
+
+		final Thread thread = new Thread(this::run, "Datapack writer " + nameSpace);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues given functions, which are appended to existing ones, see {@link Datapack#putFunctions(String, Map)}. The contents
+	 * are copied, so that the caller can reuse them. Waits while the queue is full, except on server thread.
+	 * @param functions Content of functions by name of mcfunction.
+	 * @throws IllegalStateException if writer is closed or its thread stopped.
+	 */
+	public void submit(@NotNull Map<String, ? extends CharSequence> functions){
+		if (closed) throw new IllegalStateException("Writer of " + nameSpace + " is closed.");
+		if (functions.isEmpty()) return;
+
+		final Map<String, String> copy = new LinkedHashMap<>();
+		functions.forEach((function, content) -> copy.put(function, content.toString()));
+
+		// Back-pressure: producers wait for the disk, server thread never does
+		final boolean permit;
+		if (Bukkit.isPrimaryThread()) permit = capacity.tryAcquire();
+		else {
+			capacity.acquireUninterruptibly();
+			permit = true;
+		}
+		if (stopped) throw new IllegalStateException("Writer of " + nameSpace + " stopped.");
+
+		// Writer may stop meanwhile, then nothing takes the batch anymore
+		final Batch batch = new Batch(Collections.unmodifiableMap(copy), permit);
+		queue.add(batch);
+		if (stopped && queue.remove(batch)) throw new IllegalStateException("Writer of " + nameSpace + " stopped.");
+	}
+
+	/**
+	 * @return Returns true if the queue is full, so that a producer on server thread should pause submitting.
+	 */
+	public boolean isBackedUp(){
+		return capacity.availablePermits() == 0;
+	}
+
+	/**
+	 * Stops accepting batches. Queued batches are still written.
+	 * @return Returns future completing when every submitted function is durably written.
+	 */
+	public @NotNull CompletableFuture<Void> close(){
+		if (!closed) {
+			closed = true;
+			queue.add(Batch.END);
+		}
+		return done;
+	}
+
+	private void run(){
+		try {
+			write();
+		} catch (Throwable t) {
+			done.completeExceptionally(t);
+			throw t;
+		} finally {
+			// Waiting producers are woken up and fail, permits are not needed anymore
+			stopped = true;
+			done.completeExceptionally(new IllegalStateException("Writer of " + nameSpace + " stopped."));
+			capacity.release(Integer.MAX_VALUE - CAPACITY);
+		}
+	}
+
+	private void write(){
+		while (true) {
+			final Batch batch;
+			try {
+				batch = queue.take();
+			} catch (InterruptedException e) {
+				done.completeExceptionally(e);
+				return;
+			}
+			if (batch == Batch.END) break;
+
+			// After a failure batches are only dropped, so that producers do not wait forever
+			if (!done.isDone()) {
+				try {
+					datapack.putFunctions(nameSpace, batch.functions());
+					written.addAll(batch.functions().keySet());
+				} catch (RuntimeException e) {
+					done.completeExceptionally(e);
+				}
+			}
+			if (batch.permit()) capacity.release();
+		}
+
+		// Every function is forced once, producers do not wait for it anymore
+		if (!done.isDone()) {
+			try {
+				datapack.force(nameSpace, written);
+			} catch (RuntimeException e) {
+				done.completeExceptionally(e);
+				return;
+			}
+		}
+		done.complete(null);
+	}
+
+	/**
+	 * Functions written together.
+	 * @param functions Content of functions by name of mcfunction.
+	 * @param permit Defines if batch holds a place of capacity.
+	 */
+	private record Batch(@NotNull Map<String, String> functions, boolean permit) {
+
+		/**
+		 * Marks end of queue.
+		 */
+		private static final Batch END = new Batch(Map.of(), false);
+	}
+}
@@ -0,0 +1,102 @@
+package com.github.militalex.util.tickables;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * This class offers functionalities to process a possibly huge amount of work in slices. Each tick the tickable does single
+ * steps until the {@link TickBudget} of the tick is used up and continues with the next step on the following tick.
+ * When started asynchronously the tickable works in slices as long as the whole budget, one slice per tick, so that it does
+ * not compete with a lagging server for the CPU. Asynchronous slices do not adapt the budget. A tickable started synchronously
+ * shares its budget with the other synchronous tickables using it until it is canceled.
+ * This class does not start automatically to tick, but it will stop if no work is left.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public abstract class BudgetedTickable extends Tickable {
+
+	/**
+	 * Budget deciding how much time can be spent per tick.
+	 */
+	@NotNull private final TickBudget budget;
+
+	/**
+	 * Defines if this tickable joined its budget.
+	 */
+	private boolean joined;
+
+	/**
+	 * @param plugin The Plugin the tickable is working for. This is needed by the BukkitScheduler.
+	 * @param budget Budget deciding how much time can be spent per tick.
+	 */
+	protected BudgetedTickable(@NotNull Plugin plugin, @NotNull TickBudget budget) {
+		super(plugin);
+		this.budget = budget;
+	}
+
+	@Override
+	public void start(long delay, long period, boolean synchron) {
+		super.start(delay, period, synchron);
+
+		// Only tickables on server thread compete for the same tick
+		if (synchron) {
+			budget.join();
+			joined = true;
+		}
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		if (joined) {
+			joined = false;
+			budget.leave();
+		}
+	}
+
+	/**
+	 * Ensures work is left before running the actual steps. If not the tickable will be canceled.
+	 * Steps are done until work is done or budget of this tick is exhausted. At least one step is done per tick, unless the
+	 * tickable is paused. Off the server thread the next slice is scheduled for the following tick.
+	 */
+	@Override
+	protected final void run() {
+		if (!hasWork()) {
+			cancel();
+			return;
+		}
+
+		final boolean async = !Bukkit.isPrimaryThread();
+		if (!isPaused()) {
+			final long deadline = async ? System.nanoTime() + budget.getBudgetNanos() : budget.begin();
+			do {
+				step();
+			} while (hasWork() && !isPaused() && System.nanoTime() - deadline < 0);
+		}
+
+		// Asynchronous tasks run once, so the next slice is scheduled by the slice before
+		if (async) {
+			if (hasWork()) continueAsynchronously(1);
+			else cancel();
+		}
+	}
+
+	/**
+	 * @return Returns true if there is work left to do.
+	 */
+	protected abstract boolean hasWork();
+
+	/**
+	 * @return Returns true if steps on server thread have to wait, e.g. for another thread. The rest of the tick is skipped then.
+	 */
+	protected boolean isPaused(){
+		return false;
+	}
+
+	/**
+	 * Does a single step of work. This should take only a tiny fraction of a tick.
+	 */
+	protected abstract void step();
+}
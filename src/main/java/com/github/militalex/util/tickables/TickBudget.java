@@ -0,0 +1,208 @@
+package com.github.militalex.util.tickables;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * This class represents a time budget in nanoseconds a tickable is allowed to spend per server tick. The budget adapts itself
+ * on every tick: It shrinks multiplicatively while the measured MSPT (milliseconds per tick) is above the target and grows
+ * additively again while the server has headroom.
+ * <br>
+ * Spigot offers no MSPT api, so the time between two consecutive ticks is measured instead. On Paper based servers the
+ * average tick time of the server is used, which also detects an idle server.
+ * <br>
+ * A budget can be shared by multiple tickables. Each tickable running on server thread joins the budget while it runs and gets
+ * an equal share per tick, the budget is adapted only once per server tick. Ticks are counted by Paper or, on Spigot, by a task started with {@link TickBudget#startCounting(Plugin)}.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class TickBudget {
+
+	/**
+	 * Length of a server tick in nanoseconds when server is running at 20 TPS.
+	 */
+	public static final long TICK_NANOS = 50_000_000L;
+
+	/**
+	 * Paper only method {@code Server#getAverageTickTime()} or null if not available.
+	 */
+	@Nullable private static final MethodHandle AVERAGE_TICK_TIME = findServerMethod("getAverageTickTime", double.class);
+
+	/**
+	 * Paper only method {@code Server#getCurrentTick()} or null if not available.
+	 */
+	@Nullable private static final MethodHandle CURRENT_TICK = findServerMethod("getCurrentTick", int.class);
+
+	/**
+	 * Ticks counted by the task of {@link TickBudget#startCounting(Plugin)} if server does not count them.
+	 */
+	private static int countedTicks;
+
+	/**
+	 * Lower and upper bound of budget in nanoseconds.
+	 */
+	private final long minNanos, maxNanos;
+
+	/**
+	 * Amount of nanoseconds budget grows per tick with headroom.
+	 */
+	private final long growNanos;
+
+	/**
+	 * MSPT in nanoseconds above which the budget shrinks.
+	 */
+	private final long targetNanos;
+
+	/**
+	 * Current budget in nanoseconds. It is read by asynchronous tickables.
+	 */
+	private volatile long budgetNanos;
+
+	/**
+	 * Start of last tick or -1 if {@link TickBudget#begin()} was not called yet.
+	 */
+	private long lastBegin = -1;
+
+	/**
+	 * Server tick of last adaptation.
+	 */
+	private int lastTick;
+
+	/**
+	 * Smoothed time between two ticks in nanoseconds.
+	 */
+	private double smoothedInterval = TICK_NANOS;
+
+	/**
+	 * Amount of tickables on server thread sharing this budget.
+	 */
+	private int shares;
+
+	/**
+	 * @param initialMs Budget in milliseconds which is used on first tick.
+	 * @param minMs Budget will never shrink below this amount of milliseconds.
+	 * @param maxMs Budget will never grow above this amount of milliseconds.
+	 * @param targetMspt MSPT the server should not exceed.
+	 */
+	public TickBudget(double initialMs, double minMs, double maxMs, double targetMspt) {
+		if (minMs <= 0 || maxMs < minMs) throw new IllegalArgumentException("Invalid budget bounds [" + minMs + ", " + maxMs + "]");
+
+		this.minNanos = toNanos(minMs);
+		this.maxNanos = toNanos(maxMs);
+		this.growNanos = Math.max(1, (maxNanos - minNanos) / 20);
+		this.targetNanos = toNanos(targetMspt);
+		this.budgetNanos = Math.max(minNanos, Math.min(maxNanos, toNanos(initialMs)));
+	}
+
+	/**
+	 * Has to be called once per tickable at the beginning of every tick on server thread. Adapts budget to measured MSPT
+	 * once per server tick, no matter how many tickables use this budget.
+	 * @return Returns the {@link System#nanoTime()} the work of the calling tickable should end in this tick.
+	 */
+	public long begin(){
+		final long now = System.nanoTime();
+		final int tick = getCurrentTick();
+
+		// Other tickables using this budget begin during the same tick, but budget is adapted by the first of them
+		if (lastBegin == -1 || tick != lastTick) {
+			// Ticks without any tickable, e.g. while paused, do not count as lag
+			if (lastBegin != -1 && tick - lastTick > 0) {
+				smoothedInterval = smoothedInterval * 0.75 + (double) (now - lastBegin) / (tick - lastTick) * 0.25;
+				adapt();
+			}
+			lastBegin = now;
+			lastTick = tick;
+		}
+		return now + budgetNanos / Math.max(1, shares);
+	}
+
+	/**
+	 * Starts counting server ticks if the server does not count them itself. Has to be called once when plugin is enabled,
+	 * before any tickable uses a budget.
+	 */
+	public static void startCounting(@NotNull Plugin plugin){
+		if (CURRENT_TICK == null) Bukkit.getScheduler().runTaskTimer(plugin, () -> countedTicks++, 0, 1);
+	}
+
+	/**
+	 * Adds a tickable sharing this budget, so that each of them gets an equal share per tick. Has to be called on server thread.
+	 */
+	public void join(){
+		shares++;
+	}
+
+	/**
+	 * Removes a tickable which joined this budget. Has to be called on server thread.
+	 */
+	public void leave(){
+		if (shares == 0) throw new IllegalStateException("No tickable shares this budget.");
+		shares--;
+	}
+
+	/**
+	 * @return Returns current budget in nanoseconds.
+	 */
+	public long getBudgetNanos(){
+		return budgetNanos;
+	}
+
+	/**
+	 * Shrinks budget when server is lagging and grows it when there is headroom left.
+	 */
+	private void adapt(){
+		final double mspt = measureMspt();
+
+		// Without Paper the interval cannot drop below one tick, so only a tick that takes too long counts as lag
+		final double limit = AVERAGE_TICK_TIME != null ? targetNanos : Math.max(targetNanos, TICK_NANOS * 1.02);
+
+		if (mspt > limit) budgetNanos = Math.max(minNanos, budgetNanos * 3 / 4);
+		else budgetNanos = Math.min(maxNanos, budgetNanos + growNanos);
+	}
+
+	/**
+	 * @return Returns the current MSPT in nanoseconds.
+	 */
+	private double measureMspt(){
+		if (AVERAGE_TICK_TIME != null) {
+			try {
+				return (double) AVERAGE_TICK_TIME.invoke(Bukkit.getServer()) * 1_000_000;
+			} catch (Throwable ignored) { }
+		}
+		return smoothedInterval;
+	}
+
+	private static long toNanos(double ms){
+		return (long) (ms * 1_000_000);
+	}
+
+	/**
+	 * @return Returns current server tick.
+	 */
+	private static int getCurrentTick(){
+		if (CURRENT_TICK != null) {
+			try {
+				return (int) CURRENT_TICK.invoke(Bukkit.getServer());
+			} catch (Throwable ignored) { }
+		}
+		return countedTicks;
+	}
+
+	/**
+	 * @return Returns method of {@link Server} with given name and return type or null if server does not offer it.
+	 */
+	private static @Nullable MethodHandle findServerMethod(String name, Class<?> returnType){
+		try {
+			return MethodHandles.publicLookup().findVirtual(Server.class, name, MethodType.methodType(returnType));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+}
@@ -45,6 +45,16 @@ public abstract class Tickable {
 		else task = Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, this::run, delay);
 	}
 
+	/**
+	 * Runs asynchronous task once more after given delay. Has to be called by the running task itself, so that two runs
+	 * never overlap.
+	 * @param delay Amount of ticks next run should be delayed.
+	 */
+	protected void continueAsynchronously(long delay){
+		if (task == null) throw new IllegalStateException("Task cannot continued without starting");
+		task = Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, this::run, delay);
+	}
+
 	/**
 	 * @return Returns if task have been started is running.
 	 */
@@ -0,0 +1,77 @@
+package com.github.militalex.util.world;
+
+/**
+ * Service class to pack block and chunk coordinates into a single long, so that positions can be stored without creating objects.
+ * Block positions use the same layout as Minecraft: 26 bits x, 26 bits z and 12 bits y.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class BlockPos {
+
+	/**
+	 * Offsets of the 6 direct neighbours of a block, without diagonal neighbours. The i-th neighbour of a block at x, y, z is
+	 * at x + NEIGHBOUR_X[i], y + NEIGHBOUR_Y[i], z + NEIGHBOUR_Z[i], ordered by x, then y, then z.
+	 */
+	public static final int[] NEIGHBOUR_X = {-1, 0, 0, 0, 0, 1};
+	public static final int[] NEIGHBOUR_Y = {0, -1, 0, 0, 1, 0};
+	public static final int[] NEIGHBOUR_Z = {0, 0, -1, 1, 0, 0};
+
+	private BlockPos() { }
+
+	/**
+	 * @return Returns the given block coordinates packed into a long.
+	 */
+	public static long pack(int x, int y, int z){
+		return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+	}
+
+	/**
+	 * @return Returns x coordinate of a packed block position.
+	 */
+	public static int getX(long pos){
+		return (int) (pos >> 38);
+	}
+
+	/**
+	 * @return Returns y coordinate of a packed block position.
+	 */
+	public static int getY(long pos){
+		return (int) (pos << 52 >> 52);
+	}
+
+	/**
+	 * @return Returns z coordinate of a packed block position.
+	 */
+	public static int getZ(long pos){
+		return (int) (pos << 26 >> 38);
+	}
+
+	/**
+	 * @return Returns the given chunk coordinates packed into a long.
+	 */
+	public static long chunkKey(int chunkX, int chunkZ){
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return Returns key of chunk containing given packed block position.
+	 */
+	public static long chunkKeyOf(long pos){
+		return chunkKey(getX(pos) >> 4, getZ(pos) >> 4);
+	}
+
+	/**
+	 * @return Returns chunk x coordinate of a chunk key.
+	 */
+	public static int getChunkX(long chunkKey){
+		return (int) (chunkKey >> 32);
+	}
+
+	/**
+	 * @return Returns chunk z coordinate of a chunk key.
+	 */
+	public static int getChunkZ(long chunkKey){
+		return (int) chunkKey;
+	}
+}
@@ -0,0 +1,55 @@
+package com.github.militalex.util.world;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Collection of block positions with a score, a length and flags, which are waiting to be processed. Implementations
+ * decide which element is the head and store elements in primitive arrays, so that no objects are created per element.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public interface BlockPosFrontier {
+
+	/**
+	 * Adds given element.
+	 */
+	void add(int x, int y, int z, int score, int length, int flags);
+
+	/**
+	 * Removes the head.
+	 * @throws NoSuchElementException if frontier is empty.
+	 */
+	void remove();
+
+	// Accessors of head
+
+	int getX();
+
+	int getY();
+
+	int getZ();
+
+	int getScore();
+
+	int getLength();
+
+	int getFlags();
+
+	/**
+	 * @return Returns amount of elements.
+	 */
+	int size();
+
+	/**
+	 * @return Returns true if there are no elements.
+	 */
+	default boolean isEmpty(){
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	void clear();
+}
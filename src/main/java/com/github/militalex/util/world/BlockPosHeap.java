@@ -0,0 +1,183 @@
+package com.github.militalex.util.world;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary min-heap of block positions with a score, a length and flags, ordered by score. Elements with equal score
+ * are ordered by insertion, so the order of elements is deterministic. Every column is stored in its own primitive array,
+ * so adding and removing never allocates, except when the heap has to grow.
+ * <br>
+ * This class is not thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class BlockPosHeap implements BlockPosFrontier {
+
+	private int[] xs, ys, zs, scores, lengths, flags;
+
+	/**
+	 * Insertion number of every element, used to order elements with equal score.
+	 */
+	private long[] seqs;
+
+	/**
+	 * Amount of elements in heap.
+	 */
+	private int size;
+
+	/**
+	 * Insertion number of next element.
+	 */
+	private long nextSeq;
+
+	public BlockPosHeap(){
+		this(256);
+	}
+
+	/**
+	 * @param capacity Amount of elements the heap can hold without growing.
+	 */
+	public BlockPosHeap(int capacity){
+		xs = new int[Math.max(16, capacity)];
+		ys = new int[xs.length];
+		zs = new int[xs.length];
+		scores = new int[xs.length];
+		lengths = new int[xs.length];
+		flags = new int[xs.length];
+		seqs = new long[xs.length];
+	}
+
+	@Override
+	public void add(int x, int y, int z, int score, int length, int flags){
+		if (size == xs.length) grow();
+
+		set(size, x, y, z, score, length, flags, nextSeq++);
+		siftUp(size++);
+	}
+
+	@Override
+	public void remove(){
+		checkNotEmpty();
+		size--;
+		if (size > 0) {
+			move(size, 0);
+			siftDown(0);
+		}
+	}
+
+	// Accessors of head
+
+	@Override
+	public int getX(){
+		checkNotEmpty();
+		return xs[0];
+	}
+
+	@Override
+	public int getY(){
+		checkNotEmpty();
+		return ys[0];
+	}
+
+	@Override
+	public int getZ(){
+		checkNotEmpty();
+		return zs[0];
+	}
+
+	@Override
+	public int getScore(){
+		checkNotEmpty();
+		return scores[0];
+	}
+
+	@Override
+	public int getLength(){
+		checkNotEmpty();
+		return lengths[0];
+	}
+
+	@Override
+	public int getFlags(){
+		checkNotEmpty();
+		return flags[0];
+	}
+
+	@Override
+	public int size(){
+		return size;
+	}
+
+	@Override
+	public void clear(){
+		size = 0;
+	}
+
+	private void checkNotEmpty(){
+		if (size == 0) throw new NoSuchElementException("Heap is empty.");
+	}
+
+	/**
+	 * @return Returns true if element at index {@code i} has to be before element at index {@code j}.
+	 */
+	private boolean less(int i, int j){
+		if (scores[i] != scores[j]) return scores[i] < scores[j];
+		return seqs[i] < seqs[j];
+	}
+
+	private void siftUp(int i){
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (!less(i, parent)) break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i){
+		while (true) {
+			final int left = 2 * i + 1;
+			if (left >= size) break;
+
+			final int right = left + 1;
+			final int child = right < size && less(right, left) ? right : left;
+			if (!less(child, i)) break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void set(int i, int x, int y, int z, int score, int length, int flags, long seq){
+		this.xs[i] = x;
+		this.ys[i] = y;
+		this.zs[i] = z;
+		this.scores[i] = score;
+		this.lengths[i] = length;
+		this.flags[i] = flags;
+		this.seqs[i] = seq;
+	}
+
+	private void move(int from, int to){
+		set(to, xs[from], ys[from], zs[from], scores[from], lengths[from], flags[from], seqs[from]);
+	}
+
+	private void swap(int i, int j){
+		final int x = xs[i], y = ys[i], z = zs[i], score = scores[i], length = lengths[i], flag = flags[i];
+		final long seq = seqs[i];
+		move(j, i);
+		set(j, x, y, z, score, length, flag, seq);
+	}
+
+	private void grow(){
+		final int capacity = xs.length << 1;
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+		scores = Arrays.copyOf(scores, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		seqs = Arrays.copyOf(seqs, capacity);
+	}
+}
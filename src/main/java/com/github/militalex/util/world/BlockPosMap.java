@@ -0,0 +1,208 @@
+package com.github.militalex.util.world;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing hash map from packed block positions (see {@link BlockPos}) to a score, a length and some flag bits.
+ * All data is stored in primitive arrays, so neither keys nor values are boxed. Entries are addressed by their slot index,
+ * which stays valid until the map grows by adding a new position.
+ * <br>
+ * This class is not thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class BlockPosMap {
+
+	/**
+	 * Marks an unused slot. It is not a reachable block position, because its x coordinate is far outside the world border.
+	 */
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] scores;
+	private int[] lengths;
+	private byte[] flags;
+
+	/**
+	 * Amount of positions in map.
+	 */
+	private int size;
+
+	/**
+	 * Size at which map grows.
+	 */
+	private int threshold;
+
+	public BlockPosMap(){
+		this(64);
+	}
+
+	/**
+	 * @param expectedSize Amount of positions the map can hold without growing.
+	 */
+	public BlockPosMap(int expectedSize){
+		allocate(Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1);
+	}
+
+	/**
+	 * @return Returns slot index of given position or -1 if it is not in map.
+	 */
+	public int indexOf(long pos){
+		final int mask = keys.length - 1;
+		for (int i = hash(pos) & mask; ; i = (i + 1) & mask) {
+			final long key = keys[i];
+			if (key == pos) return i;
+			if (key == EMPTY) return -1;
+		}
+	}
+
+	/**
+	 * @return Returns true if given position is in map.
+	 */
+	public boolean contains(long pos){
+		return indexOf(pos) != -1;
+	}
+
+	/**
+	 * Puts given position with given values into map, replacing values that were stored before.
+	 * @return Returns slot index of position.
+	 */
+	public int put(long pos, int score, int length, int flags){
+		if (pos == EMPTY) throw new IllegalArgumentException("Position " + pos + " cannot be stored.");
+		if (size >= threshold) grow();
+
+		final int mask = keys.length - 1;
+		int i = hash(pos) & mask;
+		while (keys[i] != EMPTY && keys[i] != pos) i = (i + 1) & mask;
+
+		if (keys[i] == EMPTY) {
+			keys[i] = pos;
+			size++;
+		}
+		set(i, score, length, flags);
+		return i;
+	}
+
+	/**
+	 * Replaces values of entry in given slot.
+	 */
+	public void set(int index, int score, int length, int flags){
+		this.scores[index] = score;
+		this.lengths[index] = length;
+		this.flags[index] = (byte) flags;
+	}
+
+	public int getScore(int index){
+		return scores[index];
+	}
+
+	public int getLength(int index){
+		return lengths[index];
+	}
+
+	public int getFlags(int index){
+		return flags[index];
+	}
+
+	public void setFlags(int index, int flags){
+		this.flags[index] = (byte) flags;
+	}
+
+	/**
+	 * @return Returns amount of positions in map.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return Returns true if there is no position in map.
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * Removes all positions from map.
+	 */
+	public void clear(){
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * Performs given action for every position in map.
+	 */
+	public void forEachPos(LongConsumer action){
+		for (long key : keys) {
+			if (key != EMPTY) action.accept(key);
+		}
+	}
+
+	/**
+	 * Writes all entries into given output.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == EMPTY) continue;
+			out.writeLong(keys[i]);
+			out.writeInt(scores[i]);
+			out.writeInt(lengths[i]);
+			out.writeByte(flags[i]);
+		}
+	}
+
+	/**
+	 * Reads entries written by {@link BlockPosMap#write(DataOutput)} and puts them into map.
+	 */
+	public void read(DataInput in) throws IOException {
+		for (int n = in.readInt(); n > 0; n--) {
+			put(in.readLong(), in.readInt(), in.readInt(), in.readByte());
+		}
+	}
+
+	/**
+	 * Doubles capacity and reinserts all entries.
+	 */
+	private void grow(){
+		final long[] oldKeys = keys;
+		final int[] oldScores = scores, oldLengths = lengths;
+		final byte[] oldFlags = flags;
+
+		allocate(oldKeys.length << 1);
+		final int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == EMPTY) continue;
+
+			int i = hash(oldKeys[j]) & mask;
+			while (keys[i] != EMPTY) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			set(i, oldScores[j], oldLengths[j], oldFlags[j]);
+		}
+	}
+
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		scores = new int[capacity];
+		lengths = new int[capacity];
+		flags = new byte[capacity];
+		threshold = capacity >> 1;
+	}
+
+	/**
+	 * Spreads bits of position, because neighbouring positions only differ in a few low bits.
+	 */
+	private static int hash(long pos){
+		pos ^= pos >>> 33;
+		pos *= 0xff51afd7ed558ccdL;
+		pos ^= pos >>> 33;
+		return (int) pos;
+	}
+}
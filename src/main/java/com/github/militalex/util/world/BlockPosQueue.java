@@ -0,0 +1,183 @@
+package com.github.militalex.util.world;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Growable FIFO ring buffer of block positions with a score, a length and flags. Every column is stored in its own primitive
+ * array, so adding and removing never allocates, except when the buffer has to grow.
+ * The world of the positions is not stored, it has to be known by the user of the queue.
+ * <br>
+ * This class is not thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class BlockPosQueue implements BlockPosFrontier {
+
+	private int[] xs, ys, zs, scores, lengths, flags;
+
+	/**
+	 * Index of head and amount of elements in queue.
+	 */
+	private int head, size;
+
+	public BlockPosQueue(){
+		this(256);
+	}
+
+	/**
+	 * @param capacity Amount of elements the queue can hold without growing.
+	 */
+	public BlockPosQueue(int capacity){
+		allocate(Integer.highestOneBit(Math.max(16, capacity - 1)) << 1);
+	}
+
+	/**
+	 * Adds given element to the tail of queue.
+	 */
+	@Override
+	public void add(int x, int y, int z, int score, int length, int flags){
+		if (size == xs.length) grow();
+
+		final int i = (head + size) & (xs.length - 1);
+		this.xs[i] = x;
+		this.ys[i] = y;
+		this.zs[i] = z;
+		this.scores[i] = score;
+		this.lengths[i] = length;
+		this.flags[i] = flags;
+		size++;
+	}
+
+	/**
+	 * Removes the head of queue.
+	 * @throws NoSuchElementException if queue is empty.
+	 */
+	@Override
+	public void remove(){
+		checkNotEmpty();
+		head = (head + 1) & (xs.length - 1);
+		size--;
+	}
+
+	// Accessors of head
+
+	@Override
+	public int getX(){
+		checkNotEmpty();
+		return xs[head];
+	}
+
+	@Override
+	public int getY(){
+		checkNotEmpty();
+		return ys[head];
+	}
+
+	@Override
+	public int getZ(){
+		checkNotEmpty();
+		return zs[head];
+	}
+
+	@Override
+	public int getScore(){
+		checkNotEmpty();
+		return scores[head];
+	}
+
+	@Override
+	public int getLength(){
+		checkNotEmpty();
+		return lengths[head];
+	}
+
+	@Override
+	public int getFlags(){
+		checkNotEmpty();
+		return flags[head];
+	}
+
+	/**
+	 * @return Returns amount of elements in queue.
+	 */
+	@Override
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return Returns true if queue contains no elements.
+	 */
+	@Override
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * Removes all elements from queue.
+	 */
+	@Override
+	public void clear(){
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Writes all elements from head to tail into given output.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int n = 0; n < size; n++) {
+			final int i = (head + n) & (xs.length - 1);
+			out.writeInt(xs[i]);
+			out.writeInt(ys[i]);
+			out.writeInt(zs[i]);
+			out.writeInt(scores[i]);
+			out.writeInt(lengths[i]);
+			out.writeInt(flags[i]);
+		}
+	}
+
+	/**
+	 * Reads elements written by {@link BlockPosQueue#write(DataOutput)} and adds them to the tail of queue.
+	 */
+	public void read(DataInput in) throws IOException {
+		for (int n = in.readInt(); n > 0; n--) {
+			add(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		}
+	}
+
+	private void checkNotEmpty(){
+		if (size == 0) throw new NoSuchElementException("Queue is empty.");
+	}
+
+	/**
+	 * Doubles capacity and moves elements to the start of the new arrays.
+	 */
+	private void grow(){
+		final int[][] old = {xs, ys, zs, scores, lengths, flags};
+		final int capacity = xs.length;
+		allocate(capacity << 1);
+
+		final int[][] columns = {xs, ys, zs, scores, lengths, flags};
+		final int firstPart = capacity - head;
+		for (int c = 0; c < columns.length; c++) {
+			System.arraycopy(old[c], head, columns[c], 0, firstPart);
+			System.arraycopy(old[c], 0, columns[c], firstPart, head);
+		}
+		head = 0;
+	}
+
+	private void allocate(int capacity){
+		xs = new int[capacity];
+		ys = new int[capacity];
+		zs = new int[capacity];
+		scores = new int[capacity];
+		lengths = new int[capacity];
+		flags = new int[capacity];
+	}
+}
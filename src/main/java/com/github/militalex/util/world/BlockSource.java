@@ -0,0 +1,81 @@
+package com.github.militalex.util.world;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+
+/**
+ * This interface abstracts reading blocks of a world, so that algorithms can run on the live world as well as on snapshots of it.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public interface BlockSource {
+
+	/**
+	 * @return Returns the world blocks are read from.
+	 */
+	@NotNull World getWorld();
+
+	/**
+	 * @return Returns material of block at given position.
+	 */
+	@NotNull Material getType(int x, int y, int z);
+
+	/**
+	 * @return Returns block data of block at given position.
+	 */
+	@NotNull BlockData getBlockData(int x, int y, int z);
+
+	/**
+	 * @return Returns the command of the command block at given position or null if there is no command block.
+	 */
+	@Nullable String getCommand(int x, int y, int z);
+
+	/**
+	 * @return Returns all data of the command block at given position as stringified NBT, e.g. its command, auto, TrackOutput,
+	 * CustomName and LastOutput, or null if there is no command block.
+	 */
+	@Nullable String getCommandBlockNbt(int x, int y, int z);
+
+	/**
+	 * Enables indexing which 16x16x16 chunk sections contain blocks of given materials, see {@link BlockSource#sectionContains(int, int, int)}.
+	 * Sources which cannot read whole sections cheaply ignore this.
+	 */
+	default void indexSections(@NotNull Set<Material> materials){ }
+
+	/**
+	 * @return Returns false if the chunk section containing given position surely contains no block of the materials given to
+	 * {@link BlockSource#indexSections(Set)}, so that its blocks do not have to be read. Sources without an index always return true.
+	 */
+	default boolean sectionContains(int x, int y, int z){
+		return true;
+	}
+
+	/**
+	 * Hints that blocks of given chunk will be read soon, so that sources can load the chunk ahead of time. This method can be called from any thread.
+	 */
+	default void prefetch(int chunkX, int chunkZ){ }
+
+	/**
+	 * Prefetches the chunks of all blocks within given horizontal distance of given position except its own chunk, e.g. the chunks
+	 * which are read when a block near a chunk border is processed. This method can be called from any thread.
+	 */
+	default void prefetchAround(int x, int z, int distance){
+		final int chunkX = x >> 4, chunkZ = z >> 4;
+		for (int cx = (x - distance) >> 4; cx <= (x + distance) >> 4; cx++) {
+			for (int cz = (z - distance) >> 4; cz <= (z + distance) >> 4; cz++) {
+				if (cx != chunkX || cz != chunkZ) prefetch(cx, cz);
+			}
+		}
+	}
+
+	/**
+	 * Releases everything held for reading, e.g. chunk tickets. Has to be called on server thread when the source is not used anymore.
+	 */
+	default void close(){ }
+}
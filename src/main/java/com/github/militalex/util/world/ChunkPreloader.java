@@ -0,0 +1,180 @@
+package com.github.militalex.util.world;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * This class loads chunks before they are needed and holds them with plugin chunk tickets, so that they are not unloaded
+ * until {@link ChunkPreloader#release()} is called. Chunks can be requested from any thread, loading is done on server thread.
+ * <br>
+ * On Paper based servers chunks are loaded asynchronously with {@code World#getChunkAtAsync(int, int)}, so the server thread
+ * never waits for disk I/O. Spigot only offers synchronous loading, so there at most {@link ChunkPreloader#MAX_SYNC_LOADS_PER_TICK}
+ * chunks are loaded per tick.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class ChunkPreloader {
+
+	/**
+	 * Defines how many chunks are loaded synchronously per tick when asynchronous loading is not available.
+	 */
+	public static final int MAX_SYNC_LOADS_PER_TICK = 4;
+
+	/**
+	 * Paper only method {@code World#getChunkAtAsync(int, int)} or null if not available.
+	 */
+	@Nullable private static final MethodHandle GET_CHUNK_AT_ASYNC = findGetChunkAtAsync();
+
+	/**
+	 * The Plugin the tickets are held by. This is needed by the BukkitScheduler.
+	 */
+	private final Plugin plugin;
+
+	/**
+	 * World chunks are loaded in.
+	 */
+	private final World world;
+
+	/**
+	 * Code executed on server thread for every loaded chunk or null.
+	 */
+	@Nullable private final Consumer<Chunk> onLoad;
+
+	/**
+	 * Chunk keys of all requested chunks.
+	 */
+	private final Set<Long> requested = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Chunk keys of requested chunks which are not loaded yet.
+	 */
+	private final Queue<Long> pending = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Chunk keys of chunks a ticket is held for. Only modified on server thread.
+	 */
+	private final Set<Long> tickets = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Defines if a task loading pending chunks is scheduled.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * Defines if tickets are released, so no more chunks are loaded.
+	 */
+	private volatile boolean released;
+
+	/**
+	 * @param plugin The Plugin the tickets are held by. This is needed by the BukkitScheduler.
+	 * @param world World chunks are loaded in.
+	 * @param onLoad Code executed on server thread for every loaded chunk or null.
+	 */
+	public ChunkPreloader(@NotNull Plugin plugin, @NotNull World world, @Nullable Consumer<Chunk> onLoad) {
+		this.plugin = plugin;
+		this.world = world;
+		this.onLoad = onLoad;
+	}
+
+	/**
+	 * Requests given chunk to be loaded. Requesting a chunk again does nothing. This method can be called from any thread.
+	 */
+	public void request(int chunkX, int chunkZ){
+		if (released || !requested.add(BlockPos.chunkKey(chunkX, chunkZ))) return;
+
+		pending.add(BlockPos.chunkKey(chunkX, chunkZ));
+		if (scheduled.compareAndSet(false, true)) Bukkit.getScheduler().runTask(plugin, this::loadPending);
+	}
+
+	/**
+	 * @return Returns true if given chunk is loaded and held by a ticket.
+	 */
+	public boolean isHeld(int chunkX, int chunkZ){
+		return tickets.contains(BlockPos.chunkKey(chunkX, chunkZ));
+	}
+
+	/**
+	 * Releases all tickets and stops loading requested chunks. Has to be called on server thread.
+	 */
+	public void release(){
+		released = true;
+		pending.clear();
+		for (long key : tickets) {
+			world.removePluginChunkTicket(BlockPos.getChunkX(key), BlockPos.getChunkZ(key), plugin);
+		}
+		tickets.clear();
+	}
+
+	/**
+	 * Loads pending chunks. Has to be called on server thread.
+	 */
+	private void loadPending(){
+		scheduled.set(false);
+		int syncLoads = 0;
+		Long key;
+		while (!released && (GET_CHUNK_AT_ASYNC != null || syncLoads < MAX_SYNC_LOADS_PER_TICK) && (key = pending.poll()) != null) {
+			final int chunkX = BlockPos.getChunkX(key), chunkZ = BlockPos.getChunkZ(key);
+			if (GET_CHUNK_AT_ASYNC != null) loadAsync(chunkX, chunkZ);
+			else {
+				// Spigot loads the chunk synchronously
+				syncLoads++;
+				loaded(world.getChunkAt(chunkX, chunkZ));
+			}
+		}
+
+		// Continue on next tick if there are chunks left
+		if (!released && !pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+			Bukkit.getScheduler().runTaskLater(plugin, this::loadPending, 1);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void loadAsync(int chunkX, int chunkZ){
+		final CompletableFuture<Chunk> future;
+		try {
+			future = (CompletableFuture<Chunk>) GET_CHUNK_AT_ASYNC.invoke(world, chunkX, chunkZ);
+		} catch (Throwable e) {
+			loaded(world.getChunkAt(chunkX, chunkZ));
+			return;
+		}
+		future.thenAccept(chunk -> {
+			if (Bukkit.isPrimaryThread()) loaded(chunk);
+			else Bukkit.getScheduler().runTask(plugin, () -> loaded(chunk));
+		});
+	}
+
+	/**
+	 * Holds given chunk with a ticket. Has to be called on server thread.
+	 */
+	private void loaded(@NotNull Chunk chunk){
+		if (released) return;
+
+		if (world.addPluginChunkTicket(chunk.getX(), chunk.getZ(), plugin)) tickets.add(BlockPos.chunkKey(chunk.getX(), chunk.getZ()));
+		if (onLoad != null) onLoad.accept(chunk);
+	}
+
+	private static @Nullable MethodHandle findGetChunkAtAsync(){
+		try {
+			return MethodHandles.publicLookup().findVirtual(World.class, "getChunkAtAsync",
+					MethodType.methodType(CompletableFuture.class, int.class, int.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.github.militalex.util.world;
+
+import com.github.militalex.util.tickables.BudgetedTickable;
+import com.github.militalex.util.tickables.TickBudget;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class collects blocks which should be replaced with air and removes them chunk by chunk once started.
+ * All blocks of a chunk are removed in the same tick, so that the server sends block changes and updates lighting
+ * once per chunk. As many chunks are removed per tick as the {@link TickBudget} allows.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class ChunkRemovalTickable extends BudgetedTickable {
+
+	/**
+	 * World blocks are removed in.
+	 */
+	private final World world;
+
+	/**
+	 * Packed positions of blocks to remove by chunk key.
+	 */
+	private final Map<Long, PosList> chunks = new LinkedHashMap<>();
+
+	/**
+	 * Iterator over chunks while removing. Null before removing is started.
+	 */
+	private Iterator<PosList> cursor;
+
+	/**
+	 * Amount of collected blocks.
+	 */
+	private int size;
+
+	/**
+	 * @param plugin The Plugin the tickable is working for. This is needed by the BukkitScheduler.
+	 * @param world World blocks are removed in.
+	 * @param budget Budget deciding how much time removing can take per tick.
+	 */
+	public ChunkRemovalTickable(@NotNull Plugin plugin, @NotNull World world, @NotNull TickBudget budget) {
+		super(plugin, budget);
+		this.world = world;
+	}
+
+	/**
+	 * Collects given block to be removed later.
+	 */
+	public void add(int x, int y, int z){
+		if (cursor != null) throw new IllegalStateException("Blocks cannot be added while removing.");
+
+		chunks.computeIfAbsent(BlockPos.chunkKey(x >> 4, z >> 4), key -> new PosList()).add(BlockPos.pack(x, y, z));
+		size++;
+	}
+
+	/**
+	 * @return Returns amount of collected blocks.
+	 */
+	public int size(){
+		return size;
+	}
+
+	@Override
+	protected boolean hasWork() {
+		if (cursor == null) cursor = chunks.values().iterator();
+		return cursor.hasNext();
+	}
+
+	/**
+	 * Removes all collected blocks of next chunk.
+	 */
+	@Override
+	protected void step() {
+		final PosList chunk = cursor.next();
+		for (int i = 0; i < chunk.size; i++) {
+			final long pos = chunk.positions[i];
+			world.getBlockAt(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos)).setType(Material.AIR, false);
+		}
+		cursor.remove();
+	}
+
+	/**
+	 * Growable list of packed positions.
+	 */
+	private static final class PosList {
+		private long[] positions = new long[16];
+		private int size;
+
+		private void add(long pos){
+			if (size == positions.length) positions = Arrays.copyOf(positions, size << 1);
+			positions[size++] = pos;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.github.militalex.util.world;
+
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
+import org.bukkit.block.data.type.Piston;
+import org.bukkit.block.data.type.RedstoneWire;
+import org.bukkit.block.data.type.Repeater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Redstone relevant states of a block, decoded once from typed block data ({@link RedstoneWire}, {@link Repeater},
+ * {@link Piston} and every other {@link Directional}) instead of parsing {@link BlockData#getAsString()}.
+ * States are cached per distinct block data, so getting the state of a block is a single map lookup. This class is thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class RedstoneState {
+
+	/**
+	 * Sides a redstone wire can be connected to. Bit {@code i} of the connection masks belongs to {@code WIRE_SIDES[i]}.
+	 */
+	public static final BlockFace[] WIRE_SIDES = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+	/**
+	 * Decoded states by block data. There is only a limited amount of distinct block data, so the cache does not need to be bounded.
+	 */
+	private static final Map<BlockData, RedstoneState> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * @return Returns decoded state of given block data.
+	 */
+	public static @NotNull RedstoneState of(@NotNull BlockData data){
+		final RedstoneState state = CACHE.get(data);
+		if (state != null) return state;
+
+		// Block data is mutable, so a copy is used as key
+		final RedstoneState decoded = new RedstoneState(data);
+		final RedstoneState present = CACHE.putIfAbsent(data.clone(), decoded);
+		return present != null ? present : decoded;
+	}
+
+	/**
+	 * Facing of directional blocks or null.
+	 */
+	@Nullable private final BlockFace facing;
+
+	/**
+	 * Delay of repeaters or 0.
+	 */
+	private final int delay;
+
+	/**
+	 * Defines if repeater is locked.
+	 */
+	private final boolean locked;
+
+	/**
+	 * Defines if piston is extended.
+	 */
+	private final boolean extended;
+
+	/**
+	 * Masks of wire sides which are connected sidewards or upwards.
+	 */
+	private final int sideMask, upMask;
+
+	private RedstoneState(@NotNull BlockData data){
+		this.facing = data instanceof Directional directional ? directional.getFacing() : null;
+
+		if (data instanceof Repeater repeater) {
+			this.delay = repeater.getDelay();
+			this.locked = repeater.isLocked();
+		}
+		else {
+			this.delay = 0;
+			this.locked = false;
+		}
+
+		this.extended = data instanceof Piston piston && piston.isExtended();
+
+		int side = 0, up = 0;
+		if (data instanceof RedstoneWire wire) {
+			for (int i = 0; i < WIRE_SIDES.length; i++) {
+				switch (wire.getFace(WIRE_SIDES[i])) {
+					case SIDE -> side |= 1 << i;
+					case UP -> up |= 1 << i;
+				}
+			}
+		}
+		this.sideMask = side;
+		this.upMask = up;
+	}
+
+	/**
+	 * @return Returns facing of directional blocks (e.g. repeaters, pistons or command blocks) or null.
+	 */
+	public @Nullable BlockFace getFacing(){
+		return facing;
+	}
+
+	/**
+	 * @return Returns delay of repeaters in redstone ticks or 0.
+	 */
+	public int getDelay(){
+		return delay;
+	}
+
+	/**
+	 * @return Returns true if block is a locked repeater.
+	 */
+	public boolean isLocked(){
+		return locked;
+	}
+
+	/**
+	 * @return Returns true if block is an extended piston.
+	 */
+	public boolean isExtended(){
+		return extended;
+	}
+
+	/**
+	 * @return Returns mask of {@link RedstoneState#WIRE_SIDES} a redstone wire runs into on same height.
+	 */
+	public int getSideMask(){
+		return sideMask;
+	}
+
+	/**
+	 * @return Returns mask of {@link RedstoneState#WIRE_SIDES} a redstone wire runs up at.
+	 */
+	public int getUpMask(){
+		return upMask;
+	}
+}
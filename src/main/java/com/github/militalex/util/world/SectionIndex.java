@@ -0,0 +1,101 @@
+package com.github.militalex.util.world;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index recording for every 16x16x16 chunk section whether it contains a block of given materials. Every chunk is indexed once
+ * from its snapshot, afterwards asking for a section is a bit test. Sections which are empty in the snapshot are not read at all.
+ * <br>
+ * The index is thread safe. A chunk indexed by two threads at the same time is indexed twice with the same result.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class SectionIndex {
+
+	/**
+	 * Materials which are indexed.
+	 */
+	private final Set<Material> materials;
+
+	/**
+	 * Lowest block y of world and amount of sections per chunk.
+	 */
+	private final int minY, sectionCount;
+
+	/**
+	 * Bitsets of sections containing indexed materials by chunk key. Bit i stands for i-th section from bottom of world.
+	 */
+	private final Map<Long, long[]> masks = new ConcurrentHashMap<>();
+
+	SectionIndex(@NotNull Set<Material> materials, int minY, int maxY) {
+		this.materials = materials.isEmpty() ? EnumSet.noneOf(Material.class) : EnumSet.copyOf(materials);
+		this.minY = minY;
+		this.sectionCount = (maxY - minY) >> 4;
+	}
+
+	/**
+	 * @return Returns materials which are indexed.
+	 */
+	@NotNull Set<Material> getMaterials(){
+		return materials;
+	}
+
+	/**
+	 * @return Returns bitset of given chunk or null if it is not indexed yet.
+	 */
+	@Nullable long[] get(long chunkKey){
+		return masks.get(chunkKey);
+	}
+
+	/**
+	 * Indexes given chunk by reading its snapshot.
+	 * @return Returns bitset of given chunk.
+	 */
+	@NotNull long[] index(long chunkKey, @NotNull ChunkSnapshot snapshot){
+		final long[] mask = new long[(sectionCount + 63) >> 6];
+		for (int section = 0; section < sectionCount; section++) {
+			if (!snapshot.isSectionEmpty(section) && containsIndexed(snapshot, minY + (section << 4)))
+				mask[section >> 6] |= 1L << section;
+		}
+		masks.put(chunkKey, mask);
+		return mask;
+	}
+
+	/**
+	 * @return Returns true if section of given bitset containing given block y contains indexed materials.
+	 */
+	boolean contains(@NotNull long[] mask, int y){
+		final int section = (y - minY) >> 4;
+		return (mask[section >> 6] & 1L << section) != 0;
+	}
+
+	/**
+	 * Drops bitset of given chunk, so that it is indexed again.
+	 */
+	void invalidate(long chunkKey){
+		masks.remove(chunkKey);
+	}
+
+	/**
+	 * @return Returns true if section of given snapshot starting at given y contains a block of indexed materials.
+	 */
+	private boolean containsIndexed(@NotNull ChunkSnapshot snapshot, int sectionY){
+		for (int y = sectionY; y < sectionY + 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					if (materials.contains(snapshot.getBlockType(x, y, z))) return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,337 @@
+package com.github.militalex.util.world;
+
+import de.tr7zw.nbtapi.NBTTileEntity;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CommandBlock;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Block source reading from {@link ChunkSnapshot}s, so that it can be used from any thread. Chunks are captured lazily
+ * on server thread the first time one of its blocks is read. Because tile entities are not part of a snapshot, commands and
+ * NBT of command blocks are captured as well.
+ * Capturing never loads a chunk on server thread for another thread. Chunks which are not loaded are loaded by a
+ * {@link ChunkPreloader}, asynchronously where the server supports it, and captured as soon as they are loaded. Prefetched
+ * chunks are loaded the same way, so that reading them later does not wait. They stay loaded until the source is closed.
+ * <br>
+ * Reading blocks is thread safe, so that multiple threads can read the same source. A source can be reused after the world
+ * changed by invalidating the changed chunks.
+ * <br>
+ * If sections are indexed, every captured chunk is indexed by the first thread asking for one of its sections, see {@link SectionIndex}.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class SnapshotBlockSource implements BlockSource {
+
+	/**
+	 * Defines how many seconds a thread waits for the server thread to capture a chunk.
+	 */
+	public static final int CAPTURE_TIMEOUT = 30;
+
+	/**
+	 * Radius in chunks around a missing chunk which is captured together with it.
+	 */
+	public static final int CAPTURE_RADIUS = 1;
+
+	/**
+	 * The Plugin the chunks are captured for. This is needed by the BukkitScheduler.
+	 */
+	private final Plugin plugin;
+
+	/**
+	 * World blocks are read from.
+	 */
+	private final World world;
+
+	/**
+	 * Height bounds of world.
+	 */
+	private final int minY, maxY;
+
+	/**
+	 * Block data of air returned for blocks outside the world.
+	 */
+	private final BlockData air = Material.AIR.createBlockData();
+
+	/**
+	 * Captured chunks by chunk key.
+	 */
+	private final Map<Long, ChunkSnapshot> chunks = new ConcurrentHashMap<>();
+
+	/**
+	 * Commands of all command blocks in captured chunks by packed block position.
+	 */
+	private final Map<Long, String> commands = new ConcurrentHashMap<>();
+
+	/**
+	 * Stringified NBT of all command blocks in captured chunks by packed block position.
+	 */
+	private final Map<Long, String> commandNbt = new ConcurrentHashMap<>();
+
+	/**
+	 * Captures which are running by chunk key. A thread missing a chunk which is captured already waits for its future.
+	 */
+	private final Map<Long, CompletableFuture<Void>> capturing = new ConcurrentHashMap<>();
+
+	/**
+	 * Loads prefetched chunks, captures and holds them.
+	 */
+	private final ChunkPreloader preloader;
+
+	/**
+	 * Completed when the preloader captured the chunk with the chunk key. Threads waiting for a chunk which is not loaded wait for it.
+	 */
+	private final Map<Long, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+
+	/**
+	 * Index of sections containing materials given by {@link SnapshotBlockSource#indexSections(Set)} or null if sections are not indexed.
+	 */
+	private volatile SectionIndex index;
+
+	/**
+	 * @param plugin The Plugin the chunks are captured for. This is needed by the BukkitScheduler.
+	 * @param world World blocks are read from.
+	 */
+	public SnapshotBlockSource(@NotNull Plugin plugin, @NotNull World world) {
+		this.plugin = plugin;
+		this.world = world;
+		this.minY = world.getMinHeight();
+		this.maxY = world.getMaxHeight();
+		this.preloader = new ChunkPreloader(plugin, world, this::preloaded);
+	}
+
+	@Override
+	public @NotNull World getWorld() {
+		return world;
+	}
+
+	@Override
+	public @NotNull Material getType(int x, int y, int z) {
+		if (y < minY || y >= maxY) return Material.AIR;
+		return snapshot(x >> 4, z >> 4).getBlockType(x & 15, y, z & 15);
+	}
+
+	@Override
+	public @NotNull BlockData getBlockData(int x, int y, int z) {
+		if (y < minY || y >= maxY) return air;
+		return snapshot(x >> 4, z >> 4).getBlockData(x & 15, y, z & 15);
+	}
+
+	@Override
+	public @Nullable String getCommand(int x, int y, int z) {
+		if (y < minY || y >= maxY) return null;
+		snapshot(x >> 4, z >> 4);
+		return commands.get(BlockPos.pack(x, y, z));
+	}
+
+	@Override
+	public @Nullable String getCommandBlockNbt(int x, int y, int z) {
+		if (y < minY || y >= maxY) return null;
+		snapshot(x >> 4, z >> 4);
+		return commandNbt.get(BlockPos.pack(x, y, z));
+	}
+
+	/**
+	 * Sets materials which are indexed. Has to be called before reading from other threads starts.
+	 */
+	@Override
+	public void indexSections(@NotNull Set<Material> materials) {
+		if (index == null || !index.getMaterials().equals(materials)) index = new SectionIndex(materials, minY, maxY);
+	}
+
+	@Override
+	public boolean sectionContains(int x, int y, int z) {
+		final SectionIndex index = this.index;
+		if (index == null) return true;
+		if (y < minY || y >= maxY) return false;
+
+		final long key = BlockPos.chunkKey(x >> 4, z >> 4);
+		long[] mask = index.get(key);
+		if (mask == null) mask = index.index(key, snapshot(x >> 4, z >> 4));
+		return index.contains(mask, y);
+	}
+
+	/**
+	 * Drops snapshot of given chunk, so that it is captured again the next time one of its blocks is read.
+	 * Has to be called while no other thread reads from this source.
+	 */
+	public void invalidate(int chunkX, int chunkZ){
+		final long key = BlockPos.chunkKey(chunkX, chunkZ);
+		if (chunks.remove(key) == null) return;
+		if (index != null) index.invalidate(key);
+		commands.keySet().removeIf(pos -> BlockPos.chunkKeyOf(pos) == key);
+		commandNbt.keySet().removeIf(pos -> BlockPos.chunkKeyOf(pos) == key);
+	}
+
+	@Override
+	public void prefetch(int chunkX, int chunkZ) {
+		if (!chunks.containsKey(BlockPos.chunkKey(chunkX, chunkZ))) preloader.request(chunkX, chunkZ);
+	}
+
+	@Override
+	public void close() {
+		preloader.release();
+	}
+
+	/**
+	 * Captures given chunk loaded by preloader if it is not captured yet and wakes threads waiting for it. Called on server thread.
+	 */
+	private void preloaded(@NotNull Chunk chunk){
+		final long key = BlockPos.chunkKey(chunk.getX(), chunk.getZ());
+		if (!chunks.containsKey(key)) captured(List.of(capture(chunk)));
+
+		final CompletableFuture<Void> waiting = loading.remove(key);
+		if (waiting != null) waiting.complete(null);
+	}
+
+	/**
+	 * @return Returns snapshot of given chunk. If it is not captured yet it will be captured with its surrounding chunks.
+	 * Every chunk is captured by one thread at a time, other threads missing it wait for the capture without holding a lock.
+	 * The server thread never waits, it captures missing chunks itself and only loads the requested chunk if it is not loaded.
+	 */
+	private @NotNull ChunkSnapshot snapshot(int chunkX, int chunkZ){
+		final long key = BlockPos.chunkKey(chunkX, chunkZ);
+		ChunkSnapshot snapshot = chunks.get(key);
+		while (snapshot == null) {
+			if (Bukkit.isPrimaryThread()) {
+				captured(captureLoaded(missingAround(chunkX, chunkZ)));
+				if (!chunks.containsKey(key)) captured(List.of(capture(world.getChunkAt(chunkX, chunkZ))));
+			}
+			else {
+				final CompletableFuture<Void> running = capturing.get(key);
+				if (running != null) await(running, chunkX, chunkZ);
+				else capture(chunkX, chunkZ);
+			}
+			snapshot = chunks.get(key);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Captures given chunk and all missing chunks in {@link SnapshotBlockSource#CAPTURE_RADIUS} which are not captured by
+	 * another thread on server thread. Only loaded chunks are captured, the others are requested from the preloader.
+	 * The current thread waits until the capture is done and, if given chunk was not loaded, until the preloader captured it.
+	 */
+	private void capture(int chunkX, int chunkZ){
+		// Claim chunks that have to be captured, so that other threads wait for them
+		final CompletableFuture<Void> capture = new CompletableFuture<>();
+		final List<Long> keys = new ArrayList<>();
+		for (long key : missingAround(chunkX, chunkZ)) {
+			if (capturing.putIfAbsent(key, capture) == null) keys.add(key);
+		}
+		if (keys.isEmpty()) return;
+
+		try {
+			captured(Bukkit.getScheduler().callSyncMethod(plugin, () -> captureLoaded(keys)).get(CAPTURE_TIMEOUT, TimeUnit.SECONDS));
+			capture.complete(null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			capture.completeExceptionally(e);
+			throw new IllegalStateException("Interrupted while capturing chunk " + chunkX + ", " + chunkZ, e);
+		} catch (ExecutionException | TimeoutException e) {
+			capture.completeExceptionally(e);
+			throw new IllegalStateException("Capturing chunk " + chunkX + ", " + chunkZ + " failed!", e);
+		} finally {
+			for (long key : keys) capturing.remove(key, capture);
+		}
+
+		// Chunk which was not loaded is captured by preloader, it is checked again after waiting is registered
+		final long key = BlockPos.chunkKey(chunkX, chunkZ);
+		if (chunks.containsKey(key)) return;
+		final CompletableFuture<Void> load = loading.computeIfAbsent(key, k -> new CompletableFuture<>());
+		if (!chunks.containsKey(key)) await(load, chunkX, chunkZ);
+	}
+
+	/**
+	 * @return Returns keys of chunks in {@link SnapshotBlockSource#CAPTURE_RADIUS} around given chunk which are not captured.
+	 */
+	private @NotNull List<Long> missingAround(int chunkX, int chunkZ){
+		final List<Long> keys = new ArrayList<>();
+		for (int dx = -CAPTURE_RADIUS; dx <= CAPTURE_RADIUS; dx++) {
+			for (int dz = -CAPTURE_RADIUS; dz <= CAPTURE_RADIUS; dz++) {
+				final long key = BlockPos.chunkKey(chunkX + dx, chunkZ + dz);
+				if (!chunks.containsKey(key)) keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Waits until given capture of another thread is done.
+	 */
+	private static void await(@NotNull CompletableFuture<Void> capture, int chunkX, int chunkZ){
+		try {
+			capture.get(CAPTURE_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while capturing chunk " + chunkX + ", " + chunkZ, e);
+		} catch (ExecutionException | TimeoutException e) {
+			throw new IllegalStateException("Capturing chunk " + chunkX + ", " + chunkZ + " failed!", e);
+		}
+	}
+
+	/**
+	 * Captures given chunks which are loaded and requests the others from preloader. Has to be called on server thread.
+	 */
+	private @NotNull List<CapturedChunk> captureLoaded(@NotNull List<Long> keys){
+		final List<CapturedChunk> captured = new ArrayList<>(keys.size());
+		for (long key : keys) {
+			final int chunkX = BlockPos.getChunkX(key), chunkZ = BlockPos.getChunkZ(key);
+			if (world.isChunkLoaded(chunkX, chunkZ)) captured.add(capture(world.getChunkAt(chunkX, chunkZ)));
+			else preloader.request(chunkX, chunkZ);
+		}
+		return captured;
+	}
+
+	/**
+	 * Captures given loaded chunk. Has to be called on server thread.
+	 */
+	private static @NotNull CapturedChunk capture(@NotNull Chunk chunk){
+		// Command blocks are not part of snapshot
+		final Map<Long, String> chunkCommands = new HashMap<>(), chunkNbt = new HashMap<>();
+		for (BlockState state : chunk.getTileEntities()) {
+			if (state instanceof CommandBlock commandBlock) {
+				final long pos = BlockPos.pack(state.getX(), state.getY(), state.getZ());
+				chunkCommands.put(pos, commandBlock.getCommand());
+				chunkNbt.put(pos, new NBTTileEntity(state).toString());
+			}
+		}
+		return new CapturedChunk(BlockPos.chunkKey(chunk.getX(), chunk.getZ()), chunk.getChunkSnapshot(false, false, false),
+				chunkCommands, chunkNbt);
+	}
+
+	/**
+	 * Stores captured chunks into this source. Command blocks are stored first, so that a thread seeing a chunk sees them as well.
+	 */
+	private void captured(@NotNull List<CapturedChunk> captured){
+		for (CapturedChunk chunk : captured) {
+			commands.putAll(chunk.commands());
+			commandNbt.putAll(chunk.nbt());
+			chunks.put(chunk.key(), chunk.snapshot());
+		}
+	}
+
+	/**
+	 * Chunk captured on server thread.
+	 * @param key Chunk key of chunk.
+	 * @param snapshot Snapshot of chunk.
+	 * @param commands Commands of command blocks inside chunk.
+	 * @param nbt Stringified NBT of command blocks inside chunk.
+	 */
+	private record CapturedChunk(long key, @NotNull ChunkSnapshot snapshot, @NotNull Map<Long, String> commands, @NotNull Map<Long, String> nbt) { }
+}
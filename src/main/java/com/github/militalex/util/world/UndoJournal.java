@@ -0,0 +1,411 @@
+package com.github.militalex.util.world;
+
+import org.bukkit.block.data.BlockData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * This class records blocks before they are removed, so that they can be restored by an {@link UndoTickable}.
+ * Block data is palette encoded: every distinct block state is stored once and blocks only refer to its index.
+ * Blocks are grouped by chunk and sorted by position, so that positions are stored as small deltas and equal block states
+ * following each other are stored as a single run. All data of command blocks is stored separately as stringified NBT.
+ * <br>
+ * Recorded blocks are held in memory until {@link UndoJournal#SPILL_THRESHOLD} blocks are reached. Then they are appended
+ * to the journal file as a segment, so memory stays bounded for huge contraptions. This class is not thread safe.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class UndoJournal implements Closeable {
+
+	/**
+	 * Identifies journal files and their format version.
+	 */
+	private static final int MAGIC = 0x43424a4e, VERSION = 2;
+
+	/**
+	 * Version of journals which only stored the command of command blocks instead of their NBT.
+	 */
+	private static final int COMMAND_VERSION = 1;
+
+	/**
+	 * Defines how many blocks are held in memory before they are written to file.
+	 */
+	public static final int SPILL_THRESHOLD = 1 << 16;
+
+	/**
+	 * File journal is written to.
+	 */
+	private final Path file;
+
+	/**
+	 * Name of world blocks are recorded in.
+	 */
+	private final String world;
+
+	/**
+	 * Palette index of every recorded block state.
+	 */
+	private final Map<String, Integer> paletteIndices = new HashMap<>();
+
+	/**
+	 * Recorded block states in order of their palette index.
+	 */
+	private final List<String> palette = new ArrayList<>();
+
+	/**
+	 * Amount of palette entries which are already written to file.
+	 */
+	private int writtenPalette;
+
+	/**
+	 * Blocks held in memory by chunk key.
+	 */
+	private final Map<Long, ChunkEntries> chunks = new LinkedHashMap<>();
+
+	/**
+	 * Amount of blocks held in memory.
+	 */
+	private int buffered;
+
+	/**
+	 * Amount of recorded blocks.
+	 */
+	private int size;
+
+	/**
+	 * Stream to journal file. Null until first segment is written.
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * @param file File journal is written to. An existing file is replaced.
+	 * @param world Name of world blocks are recorded in.
+	 */
+	public UndoJournal(@NotNull Path file, @NotNull String world) {
+		this.file = file;
+		this.world = world;
+	}
+
+	/**
+	 * Records given block before it is removed.
+	 * @param data Block data of block.
+	 * @param nbt All data of block as stringified NBT if block is a command block, otherwise null.
+	 * @throws UncheckedIOException Throws an UncheckedIOException if an I/O error occurs when spilling blocks to file.
+	 */
+	public void record(int x, int y, int z, @NotNull BlockData data, @Nullable String nbt){
+		final String state = data.getAsString();
+		Integer index = paletteIndices.get(state);
+		if (index == null) {
+			index = palette.size();
+			paletteIndices.put(state, index);
+			palette.add(state);
+		}
+
+		final ChunkEntries chunk = chunks.computeIfAbsent(BlockPos.chunkKey(x >> 4, z >> 4), key -> new ChunkEntries());
+		final int local = ChunkEntries.local(x, y, z);
+		chunk.add(local, index);
+		if (nbt != null) chunk.addCommand(local, nbt);
+		size++;
+
+		if (++buffered >= SPILL_THRESHOLD) {
+			try {
+				spill();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot write undo journal " + file + ".", e);
+			}
+		}
+	}
+
+	/**
+	 * @return Returns amount of recorded blocks.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Writes blocks held in memory to file and closes it. Nothing is written if no block was recorded.
+	 * @throws IOException Throws an IOException if an I/O error occurs when writing.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffered > 0) spill();
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Appends blocks held in memory as a segment to file.
+	 */
+	private void spill() throws IOException {
+		if (out == null) {
+			Files.createDirectories(file.getParent());
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(world);
+		}
+
+		// Segment marker
+		out.writeBoolean(true);
+
+		// Palette entries added since last segment
+		writeVarInt(out, palette.size() - writtenPalette);
+		for (int i = writtenPalette; i < palette.size(); i++) out.writeUTF(palette.get(i));
+		writtenPalette = palette.size();
+
+		writeVarInt(out, chunks.size());
+		for (Map.Entry<Long, ChunkEntries> entry : chunks.entrySet()) {
+			out.writeInt(BlockPos.getChunkX(entry.getKey()));
+			out.writeInt(BlockPos.getChunkZ(entry.getKey()));
+			entry.getValue().write(out);
+		}
+		out.flush();
+
+		chunks.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * Content of a journal file.
+	 * @param world Name of world blocks were recorded in.
+	 * @param palette Recorded block states by palette index.
+	 * @param chunks Recorded blocks by chunk key.
+	 * @param size Amount of recorded blocks.
+	 */
+	public record Contents(@NotNull String world, @NotNull String[] palette, @NotNull Map<Long, ChunkEntries> chunks, int size) { }
+
+	/**
+	 * Reads given journal file. Segments containing the same chunk are merged.
+	 * @throws IOException Throws an IOException if an I/O error occurs when reading or file does not contain a journal.
+	 */
+	public static @NotNull Contents read(@NotNull Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) throw new IOException(file + " is not an undo journal.");
+			final int version = in.readInt();
+			if (version != VERSION && version != COMMAND_VERSION) throw new IOException("Unsupported version " + version + " of undo journal " + file + ".");
+
+			final String world = in.readUTF();
+			final List<String> palette = new ArrayList<>();
+			final Map<Long, ChunkEntries> chunks = new LinkedHashMap<>();
+			int size = 0;
+
+			// Segments follow until end of file
+			while (in.read() == 1) {
+				final int paletteAdded = readVarInt(in);
+				for (int i = 0; i < paletteAdded; i++) palette.add(in.readUTF());
+
+				final int chunkCount = readVarInt(in);
+				for (int i = 0; i < chunkCount; i++) {
+					final long key = BlockPos.chunkKey(in.readInt(), in.readInt());
+					size += chunks.computeIfAbsent(key, k -> new ChunkEntries()).read(in, palette.size(), version == COMMAND_VERSION);
+				}
+			}
+			return new Contents(world, palette.toArray(new String[0]), chunks, size);
+		}
+	}
+
+	/**
+	 * Recorded blocks of a single chunk. Positions are stored relative to the chunk.
+	 */
+	public static final class ChunkEntries {
+
+		/**
+		 * Local position in upper and palette index in lower 32 bits of every block.
+		 */
+		private long[] entries = new long[16];
+		private int size;
+
+		/**
+		 * Local positions and stringified NBT of command blocks.
+		 */
+		private int[] commandPositions = new int[0];
+		private String[] commandNbt = new String[0];
+		private int commandCount;
+
+		/**
+		 * @return Returns position relative to chunk. Sorting local positions orders blocks by y, z and x.
+		 */
+		static int local(int x, int y, int z){
+			return y << 8 | (z & 15) << 4 | x & 15;
+		}
+
+		/**
+		 * @return Returns amount of blocks.
+		 */
+		public int size(){
+			return size;
+		}
+
+		/**
+		 * @return Returns absolute x coordinate of block with given index in chunk with given x coordinate.
+		 */
+		public int getX(int chunkX, int i){
+			return chunkX << 4 | (int) (entries[i] >> 32) & 15;
+		}
+
+		/**
+		 * @return Returns y coordinate of block with given index.
+		 */
+		public int getY(int i){
+			return (int) (entries[i] >> 32) >> 8;
+		}
+
+		/**
+		 * @return Returns absolute z coordinate of block with given index in chunk with given z coordinate.
+		 */
+		public int getZ(int chunkZ, int i){
+			return chunkZ << 4 | (int) (entries[i] >> 36) & 15;
+		}
+
+		/**
+		 * @return Returns palette index of block with given index.
+		 */
+		public int getPaletteIndex(int i){
+			return (int) entries[i];
+		}
+
+		/**
+		 * @return Returns amount of command blocks.
+		 */
+		public int getCommandCount(){
+			return commandCount;
+		}
+
+		/**
+		 * @return Returns absolute x coordinate of command block with given index in chunk with given x coordinate.
+		 */
+		public int getCommandX(int chunkX, int i){
+			return chunkX << 4 | commandPositions[i] & 15;
+		}
+
+		/**
+		 * @return Returns y coordinate of command block with given index.
+		 */
+		public int getCommandY(int i){
+			return commandPositions[i] >> 8;
+		}
+
+		/**
+		 * @return Returns absolute z coordinate of command block with given index in chunk with given z coordinate.
+		 */
+		public int getCommandZ(int chunkZ, int i){
+			return chunkZ << 4 | commandPositions[i] >> 4 & 15;
+		}
+
+		/**
+		 * @return Returns all data of command block with given index as stringified NBT.
+		 */
+		public @NotNull String getCommandNbt(int i){
+			return commandNbt[i];
+		}
+
+		private void add(int local, int paletteIndex){
+			if (size == entries.length) entries = Arrays.copyOf(entries, size << 1);
+			entries[size++] = (long) local << 32 | paletteIndex;
+		}
+
+		private void addCommand(int local, String nbt){
+			if (commandCount == commandNbt.length) {
+				commandPositions = Arrays.copyOf(commandPositions, Math.max(4, commandCount << 1));
+				commandNbt = Arrays.copyOf(commandNbt, commandPositions.length);
+			}
+			commandPositions[commandCount] = local;
+			commandNbt[commandCount++] = nbt;
+		}
+
+		/**
+		 * Writes blocks sorted by position with delta encoded positions and run length encoded palette indices.
+		 */
+		private void write(DataOutput out) throws IOException {
+			Arrays.sort(entries, 0, size);
+
+			writeVarInt(out, size);
+			int previous = 0;
+			for (int i = 0; i < size; i++) {
+				final int local = (int) (entries[i] >> 32);
+				if (i == 0) out.writeInt(local);
+				else writeVarInt(out, local - previous);
+				previous = local;
+			}
+
+			// Runs of equal palette indices
+			for (int i = 0; i < size; ) {
+				final int paletteIndex = (int) entries[i];
+				int run = 1;
+				while (i + run < size && (int) entries[i + run] == paletteIndex) run++;
+				writeVarInt(out, run);
+				writeVarInt(out, paletteIndex);
+				i += run;
+			}
+
+			writeVarInt(out, commandCount);
+			for (int i = 0; i < commandCount; i++) {
+				out.writeInt(commandPositions[i]);
+				final byte[] bytes = commandNbt[i].getBytes(StandardCharsets.UTF_8);
+				writeVarInt(out, bytes.length);
+				out.write(bytes);
+			}
+		}
+
+		/**
+		 * Appends blocks written by {@link ChunkEntries#write(DataOutput)}.
+		 * @param commandsOnly Defines if only commands of command blocks were written, they are converted to NBT then.
+		 * @return Returns amount of read blocks.
+		 */
+		private int read(DataInput in, int paletteSize, boolean commandsOnly) throws IOException {
+			final int count = readVarInt(in);
+			final int start = size;
+			int local = 0;
+			for (int i = 0; i < count; i++) {
+				local = i == 0 ? in.readInt() : local + readVarInt(in);
+				add(local, 0);
+			}
+
+			for (int i = start; i < start + count; ) {
+				final int run = readVarInt(in);
+				final int paletteIndex = readVarInt(in);
+				if (run <= 0 || i + run > start + count || paletteIndex >= paletteSize) throw new IOException("Undo journal is corrupted.");
+				for (int j = i; j < i + run; j++) entries[j] |= paletteIndex;
+				i += run;
+			}
+
+			final int commandsRead = readVarInt(in);
+			for (int i = 0; i < commandsRead; i++) {
+				final int commandLocal = in.readInt();
+				final byte[] bytes = new byte[readVarInt(in)];
+				in.readFully(bytes);
+				final String read = new String(bytes, StandardCharsets.UTF_8);
+				addCommand(commandLocal, commandsOnly ? "{Command:\"" + read.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}" : read);
+			}
+			return count;
+		}
+	}
+
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			final byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Undo journal is corrupted.");
+	}
+}
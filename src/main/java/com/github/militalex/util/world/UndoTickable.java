@@ -0,0 +1,145 @@
+package com.github.militalex.util.world;
+
+import de.tr7zw.nbtapi.NBTContainer;
+import de.tr7zw.nbtapi.NBTTileEntity;
+import com.github.militalex.util.tickables.BudgetedTickable;
+import com.github.militalex.util.tickables.TickBudget;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CommandBlock;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * This class restores blocks recorded by an {@link UndoJournal} chunk by chunk. All blocks of a chunk are restored in the same
+ * tick, so that the server sends block changes and updates lighting once per chunk. As many chunks are restored per tick as the
+ * {@link TickBudget} allows. This tickable has to be started synchronously.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class UndoTickable extends BudgetedTickable {
+
+	/**
+	 * World blocks are restored in.
+	 */
+	private final World world;
+
+	/**
+	 * Recorded block states by palette index.
+	 */
+	private final String[] palette;
+
+	/**
+	 * Parsed block data by palette index. Each block state is parsed once when it is needed first.
+	 */
+	private final BlockData[] paletteData;
+
+	/**
+	 * Iterator over chunks which are not restored yet.
+	 */
+	private final Iterator<Map.Entry<Long, UndoJournal.ChunkEntries>> cursor;
+
+	/**
+	 * Code that has to be executed after restoring.
+	 */
+	private final Consumer<UndoTickable> endConsumer;
+
+	/**
+	 * Amount of restored blocks and blocks with a state unknown to this server.
+	 */
+	private int restored, skipped;
+
+	/**
+	 * @param plugin The Plugin the tickable is working for. This is needed by the BukkitScheduler.
+	 * @param world World blocks are restored in.
+	 * @param budget Budget deciding how much time restoring can take per tick.
+	 * @param contents Recorded blocks.
+	 * @param endConsumer Code that has to be executed after restoring.
+	 */
+	public UndoTickable(@NotNull Plugin plugin, @NotNull World world, @NotNull TickBudget budget, @NotNull UndoJournal.Contents contents,
+						@NotNull Consumer<UndoTickable> endConsumer) {
+		super(plugin, budget);
+		this.world = world;
+		this.palette = contents.palette();
+		this.paletteData = new BlockData[palette.length];
+		this.cursor = contents.chunks().entrySet().iterator();
+		this.endConsumer = endConsumer;
+	}
+
+	/**
+	 * @return Returns amount of restored blocks.
+	 */
+	public int getRestored(){
+		return restored;
+	}
+
+	/**
+	 * @return Returns amount of blocks which could not be restored, because their block state is unknown to this server.
+	 */
+	public int getSkipped(){
+		return skipped;
+	}
+
+	/**
+	 * Overrides cancel behaviour to execute endConsumer.
+	 */
+	@Override
+	public void cancel() {
+		super.cancel();
+		endConsumer.accept(this);
+	}
+
+	@Override
+	protected boolean hasWork() {
+		return cursor.hasNext();
+	}
+
+	/**
+	 * Restores all recorded blocks of next chunk.
+	 */
+	@Override
+	protected void step() {
+		final Map.Entry<Long, UndoJournal.ChunkEntries> entry = cursor.next();
+		final int chunkX = BlockPos.getChunkX(entry.getKey()), chunkZ = BlockPos.getChunkZ(entry.getKey());
+		final UndoJournal.ChunkEntries chunk = entry.getValue();
+
+		for (int i = 0; i < chunk.size(); i++) {
+			final BlockData data = getData(chunk.getPaletteIndex(i));
+			if (data == null) {
+				skipped++;
+				continue;
+			}
+			world.getBlockAt(chunk.getX(chunkX, i), chunk.getY(i), chunk.getZ(chunkZ, i)).setBlockData(data, false);
+			restored++;
+		}
+
+		// Data of command blocks is restored after blocks, so that the command blocks exist
+		for (int i = 0; i < chunk.getCommandCount(); i++) {
+			final BlockState state = world.getBlockAt(chunk.getCommandX(chunkX, i), chunk.getCommandY(i), chunk.getCommandZ(chunkZ, i)).getState();
+			if (state instanceof CommandBlock) new NBTTileEntity(state).mergeCompound(new NBTContainer(chunk.getCommandNbt(i)));
+		}
+		cursor.remove();
+	}
+
+	/**
+	 * @return Returns block data of given palette index or null if block state is unknown to this server.
+	 */
+	private BlockData getData(int paletteIndex){
+		if (paletteData[paletteIndex] == null && palette[paletteIndex] != null) {
+			try {
+				paletteData[paletteIndex] = Bukkit.createBlockData(palette[paletteIndex]);
+			} catch (IllegalArgumentException e) {
+				// Do not try parsing again
+				palette[paletteIndex] = null;
+			}
+		}
+		return paletteData[paletteIndex];
+	}
+}
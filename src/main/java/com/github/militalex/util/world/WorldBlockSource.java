@@ -0,0 +1,77 @@
+package com.github.militalex.util.world;
+
+import de.tr7zw.nbtapi.NBTTileEntity;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CommandBlock;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Block source reading the live world. It can only be used on server thread, except prefetching.
+ * Prefetched chunks are loaded by a {@link ChunkPreloader} and stay loaded until the source is closed.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+public final class WorldBlockSource implements BlockSource {
+
+	/**
+	 * World blocks are read from.
+	 */
+	private final World world;
+
+	/**
+	 * Loads prefetched chunks and holds them.
+	 */
+	private final ChunkPreloader preloader;
+
+	/**
+	 * @param plugin The Plugin chunks are held by.
+	 * @param world World blocks are read from.
+	 */
+	public WorldBlockSource(@NotNull Plugin plugin, @NotNull World world) {
+		this.world = world;
+		this.preloader = new ChunkPreloader(plugin, world, null);
+	}
+
+	@Override
+	public @NotNull World getWorld() {
+		return world;
+	}
+
+	@Override
+	public @NotNull Material getType(int x, int y, int z) {
+		return world.getBlockAt(x, y, z).getType();
+	}
+
+	@Override
+	public @NotNull BlockData getBlockData(int x, int y, int z) {
+		return world.getBlockAt(x, y, z).getBlockData();
+	}
+
+	@Override
+	public @Nullable String getCommand(int x, int y, int z) {
+		final BlockState state = world.getBlockAt(x, y, z).getState();
+		return state instanceof CommandBlock commandBlock ? commandBlock.getCommand() : null;
+	}
+
+	@Override
+	public @Nullable String getCommandBlockNbt(int x, int y, int z) {
+		final BlockState state = world.getBlockAt(x, y, z).getState();
+		return state instanceof CommandBlock ? new NBTTileEntity(state).toString() : null;
+	}
+
+	@Override
+	public void prefetch(int chunkX, int chunkZ) {
+		preloader.request(chunkX, chunkZ);
+	}
+
+	@Override
+	public void close() {
+		preloader.release();
+	}
+}
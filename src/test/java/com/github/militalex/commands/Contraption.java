@@ -0,0 +1,150 @@
+package com.github.militalex.commands;
+
+import com.github.militalex.util.world.BlockPos;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * Fixture contraption for tests and benchmarks of {@link RedstoneGraph}. It builds a graph and keeps its nodes and edges,
+ * so that the contraption can also be traversed the way the scan did before duplicate arrivals were dropped.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+final class Contraption {
+
+	/**
+	 * Result of a traversal without dedup.
+	 * @param processed Amount of processed nodes.
+	 * @param enqueued Amount of arrivals added to the queue.
+	 * @param peakQueueSize Maximum amount of arrivals in the queue at the same time.
+	 */
+	record Traversal(int processed, int enqueued, int peakQueueSize) {}
+
+	private final RedstoneGraph.Builder builder = new RedstoneGraph.Builder("world");
+	private final List<Byte> kinds = new ArrayList<>();
+	private final List<List<int[]>> edges = new ArrayList<>();
+
+	/**
+	 * Builds a bus of wire segments connected by repeaters with increasing delay. Every wire lies on a block powering the
+	 * command blocks next to it, some of them trigger chain command blocks and the last command block of every segment is
+	 * a music slider. Wires are connected in both directions and neighbouring blocks power the same command block, so most
+	 * blocks are reached more than once.
+	 * @param segments Amount of segments.
+	 * @param wires Amount of wires per segment.
+	 * @return Returns root node.
+	 */
+	int buildBus(int segments, int wires){
+		final int[] sliderTargets = {node(RedstoneGraph.COMMAND), node(RedstoneGraph.COMMAND)};
+
+		int root = -1, previousRepeater = -1;
+		for (int segment = 0; segment < segments; segment++) {
+			final int[] wireNodes = new int[wires], blocks = new int[wires], commands = new int[wires];
+			for (int i = 0; i < wires; i++) {
+				wireNodes[i] = node(RedstoneGraph.WIRE);
+				blocks[i] = node(RedstoneGraph.BLOCK);
+				commands[i] = node(RedstoneGraph.COMMAND);
+			}
+			if (root == -1) root = wireNodes[0];
+			else {
+				final int delay = 2 * (segment % 4 + 1);
+				edge(previousRepeater, wireNodes[0], delay, RedstoneRules.STRETCH, delay, true, false);
+			}
+
+			for (int i = 0; i < wires; i++) {
+				edge(wireNodes[i], blocks[i], 0, RedstoneRules.KEEP, 0, true, false);
+				if (i > 0) edge(wireNodes[i], wireNodes[i - 1], 0, RedstoneRules.KEEP, 0, true, false);
+				if (i < wires - 1) edge(wireNodes[i], wireNodes[i + 1], 0, RedstoneRules.KEEP, 0, true, false);
+
+				edge(blocks[i], commands[i], 0, RedstoneRules.KEEP, 0, false, true);
+				if (i > 0) edge(blocks[i], commands[i - 1], 0, RedstoneRules.KEEP, 0, false, true);
+
+				if (i % 2 == 0) edge(commands[i], node(RedstoneGraph.COMMAND), 0, RedstoneRules.KEEP, 0, false, false);
+			}
+
+			// Slider of every segment places a block next to the same command blocks
+			final int slider = node(RedstoneGraph.SLIDER);
+			edge(commands[wires - 1], slider, 1, RedstoneRules.KEEP, 0, false, false);
+			for (int target : sliderTargets) edge(slider, target, 0, RedstoneRules.SET, 1, false, false);
+
+			previousRepeater = node(RedstoneGraph.REPEATER);
+			edge(wireNodes[wires - 1], previousRepeater, 0, RedstoneRules.KEEP, 0, true, false);
+		}
+		return root;
+	}
+
+	/**
+	 * Adds a node of given kind.
+	 * @return Returns index of node.
+	 */
+	int node(byte kind){
+		kinds.add(kind);
+		edges.add(new ArrayList<>());
+		return builder.addNode(BlockPos.pack(kinds.size(), 64, 0), kind);
+	}
+
+	/**
+	 * Adds an edge, see {@link RedstoneGraph.Builder#addEdge(int, int, int, int, int, boolean, boolean)}.
+	 */
+	void edge(int source, int target, int delay, int lengthOp, int lengthArg, boolean propagate, boolean requiresPropagate){
+		builder.addEdge(source, target, delay, lengthOp, lengthArg, propagate, requiresPropagate);
+		edges.get(source).add(new int[]{target, delay, lengthOp, lengthArg, propagate ? 1 : 0, requiresPropagate ? 1 : 0});
+	}
+
+	@NotNull RedstoneGraph build(int root){
+		return builder.build(root);
+	}
+
+	/**
+	 * Traverses contraption like the scan did before arrivals were deduplicated. Every arrival is enqueued and a node
+	 * is processed when its first arrival is dequeued, later arrivals are skipped when they are dequeued.
+	 * {@link RedstoneGraph.Propagation#EARLIEST} dequeues by score and then by insertion.
+	 * @param visitor Receives processed nodes like in {@link RedstoneGraph#evaluate(RedstoneGraph.Propagation, RedstoneGraph.Visitor)}.
+	 */
+	@NotNull Traversal traverseWithoutDedup(int root, @NotNull RedstoneGraph.Propagation propagation, @NotNull RedstoneGraph.Visitor visitor){
+		// Entries are node, score, length, propagate and insertion number
+		final Queue<int[]> queue = propagation == RedstoneGraph.Propagation.EARLIEST
+				? new PriorityQueue<>(Comparator.<int[]>comparingInt(entry -> entry[1]).thenComparingInt(entry -> entry[4]))
+				: new ArrayDeque<>();
+		final boolean[] processed = new boolean[kinds.size()];
+		final int[] counters = new int[3];	// Insertion number, peak queue size and processed nodes
+
+		enqueue(queue, counters, root, 0, 1, true);
+		while (!queue.isEmpty()) {
+			final int[] entry = queue.remove();
+			if (processed[entry[0]]) continue;
+			processed[entry[0]] = true;
+			counters[2]++;
+			visitor.visit(entry[0], entry[1], entry[2]);
+			follow(queue, counters, entry[0], entry[1], entry[2], entry[3] != 0);
+		}
+		return new Traversal(counters[2], counters[0], counters[1]);
+	}
+
+	private void follow(Queue<int[]> queue, int[] counters, int node, int score, int length, boolean propagate){
+		for (int[] edge : edges.get(node)) {
+			if (edge[5] != 0 && !propagate) continue;
+
+			final int newLength = switch (edge[2]) {
+				case RedstoneRules.SET -> edge[3];
+				case RedstoneRules.STRETCH -> Math.max(length, edge[3]);
+				default -> length;
+			};
+
+			// Sliders are passed directly
+			if (kinds.get(edge[0]) == RedstoneGraph.SLIDER) follow(queue, counters, edge[0], score + edge[1], newLength, edge[4] != 0);
+			else enqueue(queue, counters, edge[0], score + edge[1], newLength, edge[4] != 0);
+		}
+	}
+
+	private static void enqueue(Queue<int[]> queue, int[] counters, int node, int score, int length, boolean propagate){
+		queue.add(new int[]{node, score, length, propagate ? 1 : 0, counters[0]++});
+		counters[1] = Math.max(counters[1], queue.size());
+	}
+}
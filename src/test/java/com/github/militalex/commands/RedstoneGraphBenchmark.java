@@ -0,0 +1,87 @@
+package com.github.militalex.commands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares throughput of evaluating a dense contraption with dropping duplicate arrivals, as {@link RedstoneGraph} does,
+ * and without, as the scan did before. Queue growth of both is printed once per trial, because it does not depend on timing.
+ * The contraption is a bus of wire segments, see {@link Contraption#buildBus(int, int)}, where most blocks are reached
+ * more than once. Run it with {@link RedstoneGraphBenchmark#main(String[])} from the test classpath.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedstoneGraphBenchmark {
+
+	/**
+	 * Amount of segments of bus, each with 64 wires.
+	 */
+	@Param({"16", "256"})
+	public int segments;
+
+	private Contraption contraption;
+	private RedstoneGraph graph;
+	private int root;
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(RedstoneGraphBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	@Setup
+	public void setup(){
+		contraption = new Contraption();
+		root = contraption.buildBus(segments, 64);
+		graph = contraption.build(root);
+
+		// Queue growth
+		for (RedstoneGraph.Propagation propagation : RedstoneGraph.Propagation.values()) {
+			final RedstoneGraph.Stats stats = graph.evaluate(propagation, (node, score, length) -> { });
+			final Contraption.Traversal traversal = contraption.traverseWithoutDedup(root, propagation, (node, score, length) -> { });
+			System.out.println(propagation + " on " + graph.getNodeCount() + " nodes: with dedup " + stats.processed() + " processed, "
+					+ stats.dropped() + " dropped, peak frontier " + stats.peakFrontierSize() + "; without dedup " + traversal.enqueued()
+					+ " enqueued, peak queue " + traversal.peakQueueSize());
+		}
+	}
+
+	@Benchmark
+	public RedstoneGraph.Stats layered(Blackhole blackhole){
+		return graph.evaluate(RedstoneGraph.Propagation.LAYERED, (node, score, length) -> blackhole.consume(node));
+	}
+
+	@Benchmark
+	public Contraption.Traversal layeredWithoutDedup(Blackhole blackhole){
+		return contraption.traverseWithoutDedup(root, RedstoneGraph.Propagation.LAYERED, (node, score, length) -> blackhole.consume(node));
+	}
+
+	@Benchmark
+	public RedstoneGraph.Stats earliest(Blackhole blackhole){
+		return graph.evaluate(RedstoneGraph.Propagation.EARLIEST, (node, score, length) -> blackhole.consume(node));
+	}
+
+	@Benchmark
+	public Contraption.Traversal earliestWithoutDedup(Blackhole blackhole){
+		return contraption.traverseWithoutDedup(root, RedstoneGraph.Propagation.EARLIEST, (node, score, length) -> blackhole.consume(node));
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.militalex.commands;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the evaluation of a {@link RedstoneGraph}, which drops duplicate arrivals, with the traversal the scan used before.
+ * That traversal enqueued every arrival and only skipped a block when it was dequeued again, because processed blocks were
+ * replaced with air.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+class RedstoneGraphTest {
+
+	/**
+	 * Segments of bus of fixture contraption and wires per segment, see {@link Contraption#buildBus(int, int)}.
+	 */
+	private static final int SEGMENTS = 4, WIRES = 8;
+
+	@Test
+	void layeredEvaluationMatchesTraversalWithoutDedup(){
+		assertMatchesTraversalWithoutDedup(RedstoneGraph.Propagation.LAYERED);
+	}
+
+	@Test
+	void earliestEvaluationMatchesTraversalWithoutDedup(){
+		assertMatchesTraversalWithoutDedup(RedstoneGraph.Propagation.EARLIEST);
+	}
+
+	@Test
+	void fasterArrivalReplacesPendingArrival(){
+		// Slow path reaches node first, fast path reaches it while it is still waiting
+		final Contraption contraption = new Contraption();
+		final int root = contraption.node(RedstoneGraph.WIRE);
+		final int slow = contraption.node(RedstoneGraph.REPEATER);
+		final int fast = contraption.node(RedstoneGraph.WIRE);
+		final int target = contraption.node(RedstoneGraph.COMMAND);
+		contraption.edge(root, slow, 0, RedstoneRules.KEEP, 0, true, false);
+		contraption.edge(root, fast, 0, RedstoneRules.KEEP, 0, true, false);
+		contraption.edge(slow, target, 10, RedstoneRules.KEEP, 0, false, false);
+		contraption.edge(fast, target, 0, RedstoneRules.KEEP, 0, false, false);
+
+		final RedstoneGraph graph = contraption.build(root);
+		for (RedstoneGraph.Propagation propagation : RedstoneGraph.Propagation.values()) {
+			final List<String> visits = new ArrayList<>();
+			final RedstoneGraph.Stats stats = graph.evaluate(propagation, (node, score, length) -> visits.add(visit(node, score, length)));
+
+			assertTrue(visits.contains(visit(target, 0, 1)), propagation + " evaluation processes " + visits);
+			assertEquals(4, stats.processed(), propagation.name());
+		}
+
+		// Traversal before processed the arrival which was enqueued first
+		final List<String> visits = new ArrayList<>();
+		contraption.traverseWithoutDedup(root, RedstoneGraph.Propagation.LAYERED, (node, score, length) -> visits.add(visit(node, score, length)));
+		assertTrue(visits.contains(visit(target, 10, 1)));
+	}
+
+	@Test
+	void evaluationInStepsMatchesEvaluation(){
+		final Contraption contraption = new Contraption();
+		final RedstoneGraph graph = contraption.build(contraption.buildBus(SEGMENTS, WIRES));
+
+		final List<String> expected = new ArrayList<>();
+		graph.evaluate(RedstoneGraph.Propagation.EARLIEST, (node, score, length) -> expected.add(visit(node, score, length)));
+
+		final List<String> visits = new ArrayList<>();
+		final RedstoneGraph.Evaluation evaluation = graph.startEvaluation(RedstoneGraph.Propagation.EARLIEST,
+				(node, score, length) -> visits.add(visit(node, score, length)));
+		while (!evaluation.isDone()) evaluation.step();
+
+		assertEquals(expected, visits);
+	}
+
+	@Test
+	void builderOfGraphBuildsEqualGraph(){
+		final Contraption contraption = new Contraption();
+		final int root = contraption.buildBus(SEGMENTS, WIRES);
+		final RedstoneGraph graph = contraption.build(root);
+		final RedstoneGraph rebuilt = graph.toBuilder().build(graph.getRoot());
+
+		assertEquals(graph.getNodeCount(), rebuilt.getNodeCount());
+		assertEquals(graph.getEdgeCount(), rebuilt.getEdgeCount());
+		for (RedstoneGraph.Propagation propagation : RedstoneGraph.Propagation.values()) {
+			final List<String> expected = new ArrayList<>(), visits = new ArrayList<>();
+			graph.evaluate(propagation, (node, score, length) -> expected.add(visit(node, score, length)));
+			rebuilt.evaluate(propagation, (node, score, length) -> visits.add(visit(node, score, length)));
+			assertEquals(expected, visits, propagation.name());
+		}
+	}
+
+	private static void assertMatchesTraversalWithoutDedup(RedstoneGraph.Propagation propagation){
+		final Contraption contraption = new Contraption();
+		final int root = contraption.buildBus(SEGMENTS, WIRES);
+		final RedstoneGraph graph = contraption.build(root);
+
+		final List<String> visits = new ArrayList<>();
+		final RedstoneGraph.Stats stats = graph.evaluate(propagation, (node, score, length) -> visits.add(visit(node, score, length)));
+		final List<String> expectedVisits = new ArrayList<>();
+		final Contraption.Traversal expected = contraption.traverseWithoutDedup(root, propagation,
+				(node, score, length) -> expectedVisits.add(visit(node, score, length)));
+
+		// Same blocks are processed in the same order with the same signal
+		assertEquals(expectedVisits, visits);
+		assertEquals(expected.processed(), stats.processed());
+
+		// Duplicates are dropped before they are enqueued, so the frontier grows less
+		assertTrue(stats.dropped() > 0, "No duplicate arrival was dropped.");
+		assertTrue(stats.peakFrontierSize() < expected.peakQueueSize(),
+				"Peak frontier size " + stats.peakFrontierSize() + " is not below " + expected.peakQueueSize() + ".");
+	}
+
+	private static String visit(int node, int score, int length){
+		return node + "@" + score + "/" + length;
+	}
+}
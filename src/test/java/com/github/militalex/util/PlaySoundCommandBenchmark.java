@@ -0,0 +1,207 @@
+package com.github.militalex.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PlaySoundCommand} with the split and Scanner based parsing CommandUtil and the scanner used before.
+ * Every benchmark handles the same mix of plain, slashed and execute prefixed playsound commands and some other commands.
+ * Run it with {@link PlaySoundCommandBenchmark#main(String[])} from the test classpath.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaySoundCommandBenchmark {
+
+	private final String[] commands = {
+			"playsound minecraft:block.note_block.harp record @a ~ ~ ~ 0.5 1.2",
+			"/playsound ins_piano master @a ~ ~1 ~ 1 0.75 0.1",
+			"execute as @a[tag=musik_play] at @s run playsound fx_bell voice @s ~ ~ ~ 2 1",
+			"/execute positioned 10 64 -3 run /playsound klang_string master @p ~ ~ ~",
+			"setblock ~ ~-2 ~ minecraft:redstone_block",
+			"clone ~1 ~-3 ~1 ~1 ~-3 ~1 ~ ~-2 ~"
+	};
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PlaySoundCommandBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	// Detection of playsound commands
+
+	@Benchmark
+	public void isPlaySoundSplit(Blackhole blackhole){
+		for (String command : commands) blackhole.consume(isPlaySoundSplit(command));
+	}
+
+	@Benchmark
+	public void isPlaySoundParser(Blackhole blackhole){
+		for (String command : commands) blackhole.consume(PlaySoundCommand.parse(command).isPlaySound());
+	}
+
+	// Extraction of volume and pitch
+
+	@Benchmark
+	public void volumePitchSplit(Blackhole blackhole){
+		for (String command : commands) blackhole.consume(volumePitchSplit(command));
+	}
+
+	@Benchmark
+	public void volumePitchParser(Blackhole blackhole){
+		for (String command : commands) {
+			final PlaySoundCommand playsound = PlaySoundCommand.parse(command);
+			blackhole.consume(playsound.has(PlaySoundCommand.VOLUME) ? playsound.getDouble(PlaySoundCommand.VOLUME) : 1.0);
+			blackhole.consume(playsound.has(PlaySoundCommand.PITCH) ? playsound.getDouble(PlaySoundCommand.PITCH) : 1.0);
+		}
+	}
+
+	// Replacing volume
+
+	@Benchmark
+	public void changeVolumeSplit(Blackhole blackhole){
+		for (String command : commands) blackhole.consume(changeVolumeSplit(command, 0.8));
+	}
+
+	@Benchmark
+	public void changeVolumeParser(Blackhole blackhole){
+		for (String command : commands) {
+			final PlaySoundCommand playsound = PlaySoundCommand.parse(command);
+			if (!playsound.has(PlaySoundCommand.VOLUME)) continue;
+			blackhole.consume(command.substring(0, playsound.getStart(PlaySoundCommand.VOLUME)) + 0.8
+					+ command.substring(playsound.getEnd(PlaySoundCommand.VOLUME)));
+		}
+	}
+
+	// Extraction of sound, volume and pitch by the scanner
+
+	@Benchmark
+	public void soundScanner(Blackhole blackhole){
+		for (String command : commands) {
+			if (!command.contains("playsound")) continue;
+			final Scanner scanner = new Scanner(command);
+			while (scanner.hasNext()) {
+				if (scanner.next().endsWith("playsound")) break;
+			}
+			blackhole.consume(scanner.next());
+			for (int i = 0; i < 5; i++) scanner.next();
+			for (int i = 0; i < 2 && scanner.hasNext(); i++) blackhole.consume(scanner.next());
+		}
+	}
+
+	@Benchmark
+	public void soundParser(Blackhole blackhole){
+		for (String command : commands) {
+			final PlaySoundCommand playsound = PlaySoundCommand.parse(command);
+			if (!playsound.isPlaySound()) continue;
+			blackhole.consume(playsound.get(PlaySoundCommand.SOUND));
+			if (playsound.has(PlaySoundCommand.VOLUME)) blackhole.consume(playsound.get(PlaySoundCommand.VOLUME));
+			if (playsound.has(PlaySoundCommand.PITCH)) blackhole.consume(playsound.get(PlaySoundCommand.PITCH));
+		}
+	}
+
+	// Parsing of CommandUtil before PlaySoundCommand
+
+	/**
+	 * @return Returns arguments of command without execute prefix and leading slash or null if execute misses "run".
+	 */
+	private static List<String> removeExecuteSplit(String command){
+		List<String> cmdArgs = Arrays.asList(command.split(" "));
+		if (cmdArgs.get(0).equals("")) return null;
+
+		if (cmdArgs.get(0).equals("execute") || cmdArgs.get(0).equals("/execute")) {
+			if (!cmdArgs.contains("run")) return null;
+
+			cmdArgs = new ArrayList<>(cmdArgs);
+			for (int i = 0; i < cmdArgs.size(); ) {
+				if (cmdArgs.get(i).equals("run")) {
+					cmdArgs.remove(i);
+					break;
+				}
+				cmdArgs.remove(i);
+			}
+		}
+
+		if (cmdArgs.get(0).charAt(0) == '/') cmdArgs.set(0, cmdArgs.get(0).replaceFirst("/", ""));
+		return cmdArgs;
+	}
+
+	private static boolean isPlaySoundSplit(String command){
+		final List<String> cmdArgs = removeExecuteSplit(command);
+		return cmdArgs != null && cmdArgs.get(0).equals("playsound");
+	}
+
+	private static double[] volumePitchSplit(String command){
+		final double[] volpitch = {1.0, 1.0};
+		final List<String> cmdArgs = removeExecuteSplit(command);
+		if (cmdArgs == null) return volpitch;
+
+		try {
+			if (cmdArgs.get(0).equals("playsound")) {
+				if (cmdArgs.size() >= 8) volpitch[0] = Double.parseDouble(cmdArgs.get(7));
+				if (cmdArgs.size() >= 9) volpitch[1] = Double.parseDouble(cmdArgs.get(8));
+			}
+		}
+		catch (NumberFormatException ignored){}
+		return volpitch;
+	}
+
+	private static String changeVolumeSplit(String command, double newValue){
+		List<String> cmdArgs = Arrays.asList(command.split(" "));
+		if (cmdArgs.get(0).equals("")) return null;
+
+		final StringBuilder executePrepend = new StringBuilder();
+		if (cmdArgs.get(0).equals("execute") || cmdArgs.get(0).equals("/execute")) {
+			if (!cmdArgs.contains("run")) return null;
+
+			cmdArgs = new ArrayList<>(cmdArgs);
+			for (int i = 0; i < cmdArgs.size(); ) {
+				if (cmdArgs.get(i).equals("run")) {
+					executePrepend.append(cmdArgs.get(i)).append(" ");
+					cmdArgs.remove(i);
+					break;
+				}
+				executePrepend.append(cmdArgs.get(i)).append(" ");
+				cmdArgs.remove(i);
+			}
+		}
+
+		boolean haveSlash = false;
+		if (cmdArgs.get(0).charAt(0) == '/') {
+			cmdArgs.set(0, cmdArgs.get(0).replaceFirst("/", ""));
+			haveSlash = true;
+		}
+
+		if (!cmdArgs.get(0).equals("playsound") || cmdArgs.size() <= 7) return null;
+		cmdArgs.set(7, "" + newValue);
+
+		final StringBuilder builder = new StringBuilder(executePrepend);
+		if (haveSlash) builder.append("/");
+		for (int i = 0; i < cmdArgs.size(); i++) {
+			builder.append(cmdArgs.get(i));
+			if (i != cmdArgs.size() - 1) builder.append(" ");
+		}
+		return builder.toString();
+	}
+}
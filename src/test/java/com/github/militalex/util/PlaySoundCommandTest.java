@@ -0,0 +1,156 @@
+package com.github.militalex.util;
+
+import org.junit.jupiter.api.Test;
+
+import static com.github.militalex.util.PlaySoundCommand.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests tokenizing playsound commands with {@link PlaySoundCommand}.
+ *
+ * @author Militalex
+ * @version 1.0
+ */
+class PlaySoundCommandTest {
+
+	@Test
+	void parsesAllArguments(){
+		final PlaySoundCommand playsound = parse("playsound minecraft:block.note_block.harp record @a 10 64 -3 0.5 1.2 0.1");
+
+		assertTrue(playsound.isPlaySound());
+		assertEquals(9, playsound.getArgumentCount());
+		assertEquals("minecraft:block.note_block.harp", playsound.get(SOUND));
+		assertEquals("record", playsound.get(SOURCE));
+		assertEquals("@a", playsound.get(TARGET));
+		assertEquals("10", playsound.get(X));
+		assertEquals("64", playsound.get(Y));
+		assertEquals("-3", playsound.get(Z));
+		assertEquals(0.5, playsound.getDouble(VOLUME));
+		assertEquals(1.2, playsound.getDouble(PITCH));
+		assertEquals(0.1, playsound.getDouble(MIN_VOLUME));
+	}
+
+	@Test
+	void missingOptionalArguments(){
+		PlaySoundCommand playsound = parse("playsound ins_piano master @a");
+		assertTrue(playsound.isPlaySound());
+		assertEquals(3, playsound.getArgumentCount());
+		assertFalse(playsound.has(X));
+		assertFalse(playsound.has(VOLUME));
+		assertThrows(IllegalArgumentException.class, () -> parse("playsound ins_piano master @a").get(VOLUME));
+
+		playsound = parse("playsound ins_piano master @a ~ ~ ~");
+		assertTrue(playsound.has(Z));
+		assertFalse(playsound.has(VOLUME));
+
+		playsound = parse("playsound ins_piano master @a ~ ~ ~ 2");
+		assertEquals(2.0, playsound.getDouble(VOLUME));
+		assertFalse(playsound.has(PITCH));
+
+		// Trailing spaces are no arguments
+		playsound = parse("playsound ins_piano master @a ~ ~ ~ 2 1   ");
+		assertEquals(8, playsound.getArgumentCount());
+		assertEquals(1.0, playsound.getDouble(PITCH));
+	}
+
+	@Test
+	void relativeAndLocalCoordinates(){
+		PlaySoundCommand playsound = parse("playsound ins_piano master @s ~ ~1 ~-2.5 0.7 1.5");
+		assertEquals("~", playsound.get(X));
+		assertEquals("~1", playsound.get(Y));
+		assertEquals("~-2.5", playsound.get(Z));
+		assertEquals(0.7, playsound.getDouble(VOLUME));
+		assertEquals(1.5, playsound.getDouble(PITCH));
+
+		playsound = parse("playsound ins_piano master @s ^ ^1 ^-0.5 0.7 1.5");
+		assertEquals("^", playsound.get(X));
+		assertEquals("^1", playsound.get(Y));
+		assertEquals("^-0.5", playsound.get(Z));
+		assertEquals(0.7, playsound.getDouble(VOLUME));
+	}
+
+	@Test
+	void selectorsWithBracketsAndSpaces(){
+		PlaySoundCommand playsound = parse("playsound ins_piano master @a[tag=x, distance=..5] ~ ~ ~ 0.8 1.5");
+		assertEquals("@a[tag=x, distance=..5]", playsound.get(TARGET));
+		assertEquals("~", playsound.get(X));
+		assertEquals(0.8, playsound.getDouble(VOLUME));
+		assertEquals(1.5, playsound.getDouble(PITCH));
+
+		playsound = parse("playsound ins_piano master @e[type=minecraft:armor_stand, nbt={Tags:[\"a b\"], CustomName:'\"x] y\"'}] ~ ~ ~ 0.3");
+		assertEquals("@e[type=minecraft:armor_stand, nbt={Tags:[\"a b\"], CustomName:'\"x] y\"'}]", playsound.get(TARGET));
+		assertEquals(0.3, playsound.getDouble(VOLUME));
+
+		// Unclosed bracket takes rest of command
+		playsound = parse("playsound ins_piano master @a[tag=x ~ ~ ~ 1");
+		assertEquals(3, playsound.getArgumentCount());
+		assertEquals("@a[tag=x ~ ~ ~ 1", playsound.get(TARGET));
+	}
+
+	@Test
+	void executePrefix(){
+		String command = "execute as @a[tag=musik_play, name=\"run fast\"] at @s run playsound ins_piano record @s ~ ~ ~ 1 2";
+		PlaySoundCommand playsound = parse(command);
+		assertTrue(playsound.isPlaySound());
+		assertEquals(command.indexOf("playsound"), playsound.getKeywordStart());
+		assertEquals("ins_piano", playsound.get(SOUND));
+		assertEquals(2.0, playsound.getDouble(PITCH));
+
+		command = "/execute  if entity @e[nbt={Tags:[\"run\"]}]   run /playsound ins_piano record @s";
+		playsound = parse(command);
+		assertTrue(playsound.isPlaySound());
+		assertEquals(command.indexOf("/playsound"), playsound.getKeywordStart());
+		assertEquals("@s", playsound.get(TARGET));
+
+		playsound = parse("execute as @a[tag=run] at @s");
+		assertFalse(playsound.isPlaySound());
+		assertTrue(playsound.isMissingRun());
+
+		playsound = parse("execute as @a run setblock ~ ~ ~ air");
+		assertFalse(playsound.isPlaySound());
+		assertFalse(playsound.isMissingRun());
+	}
+
+	@Test
+	void noPlaySoundCommand(){
+		assertFalse(parse("").isPlaySound());
+		assertFalse(parse("   ").isPlaySound());
+		assertFalse(parse("say playsound").isPlaySound());
+		assertFalse(parse("playsounds ins_piano master @a").isPlaySound());
+		assertEquals(0, parse("say playsound").getArgumentCount());
+		assertEquals(0, parse("say playsound").getKeywordStart());
+	}
+
+	@Test
+	void replacesVolumeInPlace(){
+		// Like CommandUtil.changeVolume
+		final String command = "execute at @s run /playsound ins_piano master @a[tag=x, distance=..5] ^ ^ ^1 0.5 1.2";
+		final PlaySoundCommand playsound = parse(command);
+		final String newCommand = command.substring(0, playsound.getStart(VOLUME)) + 2.0 + command.substring(playsound.getEnd(VOLUME));
+
+		assertEquals("execute at @s run /playsound ins_piano master @a[tag=x, distance=..5] ^ ^ ^1 2.0 1.2", newCommand);
+	}
+
+	@Test
+	void parserIsReused(){
+		final PlaySoundCommand playsound = parse("playsound ins_piano master @a ~ ~ ~ 1 2");
+		assertSame(playsound, parse("playsound ins_piano master @a"));
+		assertEquals(3, playsound.getArgumentCount());
+		assertEquals("playsound ins_piano master @a", playsound.getCommand());
+	}
+
+	@Test
+	void parserIsNotSharedBetweenThreads() throws InterruptedException {
+		// Scanner workers parse commands while CommandUtil parses on server thread
+		final PlaySoundCommand playsound = parse("playsound ins_piano master @a ~ ~ ~ 1 2");
+		final PlaySoundCommand[] other = new PlaySoundCommand[1];
+		final Thread thread = new Thread(() -> other[0] = parse("say hello"));
+		thread.start();
+		thread.join();
+
+		assertNotSame(playsound, other[0]);
+		assertFalse(other[0].isPlaySound());
+		assertTrue(playsound.isPlaySound());
+		assertEquals(2.0, playsound.getDouble(PITCH));
+	}
+}